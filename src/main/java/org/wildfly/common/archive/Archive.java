@@ -3,21 +3,48 @@ package org.wildfly.common.archive;
 import static java.lang.Math.min;
 
 import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Manifest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 import org.wildfly.common.Assert;
+import org.wildfly.common.cpu.ProcessorInfo;
 
 /**
  */
@@ -132,6 +159,7 @@ public final class Archive implements Closeable {
 
     public static final int EXT_ID_ZIP64 = 0x0001;
 
+    // each field is only present if the corresponding central directory field is 0xffffffff
     public static final int ZIP64_UNCOMPRESSED_SIZE = 0;
     public static final int ZIP64_COMPRESSED_SIZE = 8;
     public static final int ZIP64_LOCAL_HEADER_OFFSET = 16;
@@ -159,10 +187,10 @@ public final class Archive implements Closeable {
     public static final int EOCD_ZIP64_DISK_NUMBER = 16;
     public static final int EOCD_ZIP64_CD_FIRST_DISK_NUMBER = 20;
     public static final int EOCD_ZIP64_CDE_COUNT_THIS_DISK = 24;
-    public static final int EOCD_ZIP64_CDE_COUNT_ALL = 28;
-    public static final int EOCD_ZIP64_CD_SIZE = 36;
-    public static final int EOCD_ZIP64_CD_START_OFFSET = 44;
-    public static final int EOCD_ZIP64_END = 52;
+    public static final int EOCD_ZIP64_CDE_COUNT_ALL = 32;
+    public static final int EOCD_ZIP64_CD_SIZE = 40;
+    public static final int EOCD_ZIP64_CD_START_OFFSET = 48;
+    public static final int EOCD_ZIP64_END = 56;
 
     public static final int SIG_EOCDL_ZIP64 = 0x07064b50;
 
@@ -179,43 +207,407 @@ public final class Archive implements Closeable {
     private static final int BUF_SHIFT = Integer.numberOfTrailingZeros(BUF_SIZE_MAX);
     private static final int BUF_SIZE_MASK = BUF_SIZE_MAX - 1;
 
+    /**
+     * Minimum number of entries for which the central directory is indexed in parallel, if requested.
+     */
+    private static final int PARALLEL_INDEX_MIN_ENTRIES = 1 << 13;
+    /**
+     * Number of entries hashed by a single parallel indexing task.
+     */
+    private static final int PARALLEL_INDEX_CHUNK = 1 << 11;
+    /**
+     * Minimum number of entries for which a perfect hash index is built, if requested.
+     */
+    private static final int PERFECT_INDEX_MIN_ENTRIES = 1 << 6;
+
+    private static final byte EOCD_SIG_0 = (byte) SIG_EOCD;
+    private static final byte EOCD_SIG_1 = (byte) (SIG_EOCD >> 8);
+    private static final byte EOCD_SIG_2 = (byte) (SIG_EOCD >> 16);
+    private static final byte EOCD_SIG_3 = (byte) (SIG_EOCD >> 24);
+
+    /**
+     * Backwards skip distance for the EOCD signature search, by the value of the byte at the candidate position.  The
+     * distance is that of the nearest occurrence of that byte value after the first byte of the signature, or the
+     * whole signature length if there is none.
+     */
+    private static final byte[] EOCD_SKIP;
+
+    static {
+        final byte[] skip = new byte[256];
+        Arrays.fill(skip, (byte) 4);
+        skip[EOCD_SIG_3 & 0xff] = 3;
+        skip[EOCD_SIG_2 & 0xff] = 2;
+        skip[EOCD_SIG_1 & 0xff] = 1;
+        EOCD_SKIP = skip;
+    }
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private static final int PAGE_SIZE = 4096;
+    /**
+     * The number of bytes read from the end of an archive in the first attempt to read its central directory without
+     * mapping it; this covers the central directory of most archives, and is always enough to find the end of central
+     * directory record.
+     */
+    private static final int TAIL_SIZE = 1 << 18;
+    private static final EnumSet<Flag> NO_FLAGS = EnumSet.noneOf(Flag.class);
+
     private final ByteBuffer[] bufs;
     private final long offset;
     private final long length;
     private final long cd;
     private final Index index;
+    private final EnumSet<Flag> flags;
+    private final InflaterPool inflaterPool;
+    /**
+     * The archive that this is a multi-release view of or a handle to, or {@code null} if this is neither.
+     */
+    private final Archive base;
+    /**
+     * {@code true} if this is a handle which holds one reference to {@link #base} for its holder.
+     */
+    private final boolean handle;
+    /**
+     * The index of versioned names for a multi-release view, or {@code null} if this is not a view of a
+     * multi-release archive.
+     */
+    private final Index releaseIndex;
+    /**
+     * The set of entries whose checksum has been verified, indexed by central directory position, or {@code null}
+     * if checksums are not verified.
+     */
+    private final AtomicLongArray verified;
+    private final ContentCache contentCache;
+    /**
+     * The statistics recorder, or {@code null} if statistics are not recorded.
+     */
+    private final ArchiveStatistics.Recorder recorder;
+    private volatile DirectoryIndex directoryIndex;
+    private volatile NestedArchiveCache nestedArchiveCache;
+    /**
+     * The number of outstanding references to this archive; it is released when this drops to zero.
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    /**
+     * Set once this archive or handle has been closed, so that its reference is only released once.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * The file which holds the archive, at {@link #dataOffset}, or {@code null} if the archive was not opened from
+     * a file.
+     */
+    private final Path path;
+    /**
+     * The buffers holding the entry data, or {@code null} if the mapping of {@link #path} is deferred and has not yet
+     * been done.
+     */
+    private volatile ByteBuffer[] data;
+    private final long dataOffset;
+    /**
+     * An action to run when the last reference to this archive is released, or {@code null} for none.
+     */
+    private volatile Runnable releaseAction;
 
-    private Archive(final ByteBuffer[] bufs, final long offset, final long length, final long cd, final Index index) {
+    private Archive(final ByteBuffer[] bufs, final long offset, final long length, final long cd, final Index index, final EnumSet<Flag> flags, final Path path, final boolean deferred) {
         this.bufs = bufs;
         this.offset = offset;
+        this.path = path;
+        if (! deferred) {
+            data = bufs;
+            dataOffset = offset;
+        } else {
+            dataOffset = 0;
+        }
         this.length = length;
         this.cd = cd;
         this.index = index;
+        this.flags = flags;
+        inflaterPool = new InflaterPool();
+        contentCache = new ContentCache();
+        base = null;
+        handle = false;
+        releaseIndex = null;
+        verified = flags.contains(Flag.VERIFY_CHECKSUMS) ? new AtomicLongArray(maxOrdinal() + 63 >>> 6) : null;
+        recorder = flags.contains(Flag.STATISTICS) ? new ArchiveStatistics.Recorder(maxOrdinal()) : null;
+    }
+
+    private Archive(final Archive base, final Index releaseIndex, final boolean handle) {
+        bufs = base.bufs;
+        offset = base.offset;
+        path = base.path;
+        data = base.data;
+        dataOffset = base.dataOffset;
+        length = base.length;
+        cd = base.cd;
+        index = base.index;
+        flags = base.flags;
+        inflaterPool = base.inflaterPool;
+        contentCache = base.contentCache;
+        this.base = base;
+        this.handle = handle;
+        this.releaseIndex = releaseIndex;
+        verified = base.verified;
+        recorder = base.recorder;
     }
 
     public static Archive open(Path path) throws IOException {
+        return open(path, NO_FLAGS);
+    }
+
+    /**
+     * Open an archive.
+     *
+     * @param path the archive path (must not be {@code null})
+     * @param flags optional flags to apply which affect the opening of the archive
+     * @return the opened archive (not {@code null})
+     * @throws IOException if the archive could not be opened
+     */
+    public static Archive open(Path path, Flag... flags) throws IOException {
+        return open(path, toFlagSet(flags));
+    }
+
+    private static Archive open(Path path, EnumSet<Flag> flags) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        if (flags.contains(Flag.DEFER_MAPPING)) {
+            return openDeferred(path, null, flags);
+        }
+        final ByteBuffer[] bufs = map(path);
+        return open(bufs, 0, capacity(bufs), null, flags, path, false);
+    }
+
+    /**
+     * Open an archive, using (and maintaining) a persistent index sidecar file in the given cache directory.  If a
+     * sidecar exists whose fingerprint (archive size, modification time, central directory offset, and the CRC of the
+     * end-of-central-directory record) matches the archive, the index is read from it instead of being rebuilt from
+     * the central directory; otherwise the index is built and the sidecar is (re)written.  Failure to read or write the
+     * sidecar is not fatal.
+     *
+     * @param path the archive path (must not be {@code null})
+     * @param indexCacheDir the directory in which index sidecar files are kept (must not be {@code null})
+     * @param flags optional flags to apply which affect the opening of the archive
+     * @return the opened archive (not {@code null})
+     * @throws IOException if the archive could not be opened
+     */
+    public static Archive open(Path path, Path indexCacheDir, Flag... flags) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        Assert.checkNotNullParam("indexCacheDir", indexCacheDir);
+        // read the time stamp before mapping so that a concurrent modification can only yield a stale fingerprint
+        final long modifiedTime = Files.getLastModifiedTime(path).toMillis();
+        final IndexCache indexCache = new IndexCache(indexCacheDir, path, modifiedTime);
+        final EnumSet<Flag> flagSet = toFlagSet(flags);
+        if (flagSet.contains(Flag.DEFER_MAPPING)) {
+            return openDeferred(path, indexCache, flagSet);
+        }
+        final ByteBuffer[] bufs = map(path);
+        return open(bufs, 0, capacity(bufs), indexCache, flagSet, path, false);
+    }
+
+    /**
+     * Open an archive asynchronously, without blocking the calling thread on file system access.  Only the end of
+     * the archive, which holds the central directory, is read; this is done through an
+     * {@link AsynchronousFileChannel}, and the index is built on the thread which completes the read.  As with
+     * {@link Flag#DEFER_MAPPING}, the rest of the archive is mapped when entry data is first read.
+     *
+     * @param path the archive path (must not be {@code null})
+     * @param flags optional flags to apply which affect the opening of the archive
+     * @return a future which completes with the opened archive (not {@code null})
+     */
+    public static CompletableFuture<Archive> openAsync(Path path, Flag... flags) {
+        Assert.checkNotNullParam("path", path);
+        final EnumSet<Flag> flagSet = toFlagSet(flags);
+        final CompletableFuture<Archive> future = new CompletableFuture<>();
+        final AsynchronousFileChannel ch;
+        try {
+            ch = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            final long size = ch.size();
+            readTail(ch, size, size - min(size, TAIL_SIZE)).whenComplete((tail, t) -> {
+                safeClose(ch);
+                if (t != null) {
+                    future.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                    return;
+                }
+                try {
+                    future.complete(open(new ByteBuffer[] { tail }, tail.capacity() - size, size, null, flagSet, path, true));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            safeClose(ch);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static CompletableFuture<ByteBuffer> readTail(AsynchronousFileChannel ch, long size, long start) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(tailLength(size, start)).order(ByteOrder.LITTLE_ENDIAN);
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        ch.read(buf, start, future, new CompletionHandler<Integer, CompletableFuture<ByteBuffer>>() {
+            public void completed(final Integer result, final CompletableFuture<ByteBuffer> future) {
+                if (result.intValue() == -1) {
+                    future.completeExceptionally(new EOFException("Archive was truncated while it was being read"));
+                } else if (buf.hasRemaining()) {
+                    ch.read(buf, start + buf.position(), future, this);
+                } else {
+                    buf.flip();
+                    future.complete(buf);
+                }
+            }
+
+            public void failed(final Throwable exc, final CompletableFuture<ByteBuffer> future) {
+                future.completeExceptionally(exc);
+            }
+        });
+        return future.thenCompose(tail -> {
+            final long needed;
+            try {
+                needed = getTailStart(new ByteBuffer[] { tail }, -start, start, size);
+                if (needed < start) {
+                    return readTail(ch, size, needed);
+                }
+            } catch (IOException e) {
+                final CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            return CompletableFuture.completedFuture(tail);
+        });
+    }
+
+    private static Archive openDeferred(Path path, IndexCache indexCache, EnumSet<Flag> flags) throws IOException {
+        final ByteBuffer tail;
+        final long size;
         try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
-            long size = fc.size();
-            final int bufCnt = Math.toIntExact((size + BUF_SIZE_MASK) >> BUF_SHIFT);
-            final ByteBuffer[] array = new ByteBuffer[bufCnt];
-            long offs = 0;
-            int idx = 0;
-            while (size > BUF_SIZE_MASK) {
-                array[idx++] = fc.map(FileChannel.MapMode.READ_ONLY, offs, BUF_SIZE_MAX).order(ByteOrder.LITTLE_ENDIAN);
-                size -= BUF_SIZE_MAX;
-                offs += BUF_SIZE_MAX;
+            size = fc.size();
+            tail = readTail(fc, size);
+        }
+        return open(new ByteBuffer[] { tail }, tail.capacity() - size, size, indexCache, flags, path, true);
+    }
+
+    /**
+     * Read the part of an archive which is needed to open it, from the start of its central directory to the end.
+     *
+     * @param fc the archive file channel
+     * @param size the archive size
+     * @return the end of the archive, in a little-endian buffer whose capacity is its length
+     * @throws IOException if the archive could not be read or is not valid
+     */
+    static ByteBuffer readTail(FileChannel fc, long size) throws IOException {
+        long start = size - min(size, TAIL_SIZE);
+        for (;;) {
+            final ByteBuffer tail = ByteBuffer.allocate(tailLength(size, start)).order(ByteOrder.LITTLE_ENDIAN);
+            while (tail.hasRemaining()) {
+                if (fc.read(tail, start + tail.position()) == -1) {
+                    throw new EOFException("Archive was truncated while it was being read");
+                }
+            }
+            tail.flip();
+            final long needed = getTailStart(new ByteBuffer[] { tail }, -start, start, size);
+            if (needed >= start) {
+                return tail;
+            }
+            start = needed;
+        }
+    }
+
+    private static int tailLength(long size, long start) throws IOException {
+        if (size - start > BUF_SIZE_MAX) {
+            throw new IOException("Central directory is too large");
+        }
+        return (int) (size - start);
+    }
+
+    /**
+     * Find the start of the part of an archive which must be read to open it, which is the lower of the start of the
+     * central directory and the start of the zip64 end of central directory record, if any.  Only the part of the
+     * archive from {@code start} onwards need be present in the buffers; if the result is less than {@code start},
+     * the archive must be read again from the result onwards before it is known for certain.
+     */
+    private static long getTailStart(final ByteBuffer[] bufs, final long offset, final long start, final long length) throws IOException {
+        final long eocd = findEndOfCentralDirectory(bufs, offset, length);
+        long tailStart = eocd;
+        long cd = getUnsignedInt(bufs, offset + eocd + EOCD_CD_START_OFFSET);
+        final long eocdLocZip64 = eocd - EOCDL_ZIP64_END;
+        if (eocdLocZip64 >= start && getInt(bufs, offset + eocdLocZip64 + EOCDL_ZIP64_SIGNATURE) == SIG_EOCDL_ZIP64) {
+            final long eocdZip64 = getLong(bufs, offset + eocdLocZip64 + EOCDL_ZIP64_EOCD_OFFSET);
+            if (eocdZip64 >= 0 && eocdZip64 <= eocdLocZip64 - EOCD_ZIP64_END) {
+                if (eocdZip64 < start) {
+                    return eocdZip64;
+                }
+                if (getInt(bufs, offset + eocdZip64 + EOCD_ZIP64_SIGNATURE) == SIG_EOCD_ZIP64) {
+                    tailStart = eocdZip64;
+                    if (cd == 0xffff_ffffL) {
+                        cd = getLong(bufs, offset + eocdZip64 + EOCD_ZIP64_CD_START_OFFSET);
+                    }
+                }
             }
-            array[idx] = fc.map(FileChannel.MapMode.READ_ONLY, offs, size).order(ByteOrder.LITTLE_ENDIAN);
-            return open(array);
         }
+        if (cd < 0 || cd > eocd) {
+            throw new IOException("Invalid central directory offset");
+        }
+        return min(cd, tailStart);
+    }
+
+    private static void safeClose(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static ByteBuffer[] map(Path path) throws IOException {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(fc);
+        }
+    }
+
+    private static ByteBuffer[] map(FileChannel fc) throws IOException {
+        long size = fc.size();
+        final int bufCnt = Math.max(1, Math.toIntExact((size + BUF_SIZE_MASK) >> BUF_SHIFT));
+        final ByteBuffer[] array = new ByteBuffer[bufCnt];
+        long offs = 0;
+        int idx = 0;
+        while (size > BUF_SIZE_MASK) {
+            array[idx++] = fc.map(FileChannel.MapMode.READ_ONLY, offs, BUF_SIZE_MAX).order(ByteOrder.LITTLE_ENDIAN);
+            size -= BUF_SIZE_MAX;
+            offs += BUF_SIZE_MAX;
+        }
+        array[idx] = fc.map(FileChannel.MapMode.READ_ONLY, offs, size).order(ByteOrder.LITTLE_ENDIAN);
+        return array;
     }
 
     public static Archive open(ByteBuffer buf) throws IOException {
+        return open(buf, NO_FLAGS);
+    }
+
+    /**
+     * Open an archive from a buffer.
+     *
+     * @param buf the buffer holding the archive (must not be {@code null})
+     * @param flags optional flags to apply which affect the opening of the archive
+     * @return the opened archive (not {@code null})
+     * @throws IOException if the archive could not be opened
+     */
+    public static Archive open(ByteBuffer buf, Flag... flags) throws IOException {
+        return open(buf, toFlagSet(flags));
+    }
+
+    private static Archive open(ByteBuffer buf, EnumSet<Flag> flags) throws IOException {
         Assert.checkNotNullParam("buf", buf);
         if (buf.order() == ByteOrder.BIG_ENDIAN) {
             buf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
         }
-        return open(new ByteBuffer[] { buf });
+        final ByteBuffer[] bufs = { buf };
+        return open(bufs, 0, capacity(bufs), null, flags);
+    }
+
+    private static EnumSet<Flag> toFlagSet(Flag[] flags) {
+        return flags == null || flags.length == 0 ? NO_FLAGS : EnumSet.of(flags[0], flags);
     }
 
     static Archive open(ByteBuffer[] bufs) throws IOException {
@@ -223,15 +615,16 @@ public final class Archive implements Closeable {
     }
 
     static Archive open(ByteBuffer[] bufs, long offset, long length) throws IOException {
-        // find the directory by looking first at its expected location and working our way backwards
-        long eocd = length - EOCD_END;
-        // todo: this could be optimized a bit (boyer-moore for example)
-        while (getUnsignedInt(bufs, offset + eocd) != SIG_EOCD) {
-            if (eocd == 0) {
-                throw new IOException("Invalid archive");
-            }
-            eocd--;
-        }
+        return open(bufs, offset, length, null, NO_FLAGS);
+    }
+
+    static Archive open(ByteBuffer[] bufs, long offset, long length, IndexCache indexCache, EnumSet<Flag> flags) throws IOException {
+        return open(bufs, offset, length, indexCache, flags, null, false);
+    }
+
+    static Archive open(ByteBuffer[] bufs, long offset, long length, IndexCache indexCache, EnumSet<Flag> flags, Path path, boolean deferred) throws IOException {
+        final long start = System.nanoTime();
+        final long eocd = findEndOfCentralDirectory(bufs, offset, length);
         int entries = getUnsignedShort(bufs, offset + eocd + EOCD_CDE_COUNT_ALL);
         // validate the EOCD record
         if (getUnsignedShort(bufs, offset + eocd + EOCD_CD_FIRST_DISK_NUMBER) != 0 || getUnsignedShort(bufs, offset + eocd + EOCD_DISK_NUMBER) != 0 || entries != getUnsignedShort(bufs, offset + eocd + EOCD_CDE_COUNT_THIS_DISK)) {
@@ -267,14 +660,69 @@ public final class Archive implements Closeable {
 
         // generate the index
 
-        Index index;
+        Index index = null;
+        int eocdCrc = 0;
+        if (indexCache != null) {
+            final CRC32 crc32 = new CRC32();
+            updateCrc(crc32, bufs, offset + eocd, (int) min(length - eocd, EOCD_END + getUnsignedShort(bufs, offset + eocd + EOCD_COMMENT_LENGTH)));
+            eocdCrc = (int) crc32.getValue();
+            index = indexCache.load(length, cd, eocdCrc, entries);
+        }
+        if (index == null) {
+            final boolean parallel = flags.contains(Flag.PARALLEL_INDEX) && entries >= PARALLEL_INDEX_MIN_ENTRIES && ForkJoinPool.getCommonPoolParallelism() > 1;
+            final boolean perfect = flags.contains(Flag.PERFECT_INDEX) && entries >= PERFECT_INDEX_MIN_ENTRIES;
+            if (parallel || perfect) {
+                index = buildIndexFromHashes(bufs, offset, length, cd, entries, parallel, perfect);
+            } else {
+                index = buildIndex(bufs, offset, length, cd, entries);
+            }
+            if (indexCache != null) {
+                indexCache.store(length, cd, eocdCrc, entries, index);
+            }
+        }
+        final Archive archive = new Archive(bufs, offset, length, cd, index, flags, path, deferred);
+        if (archive.recorder != null) {
+            archive.recorder.openNanos = System.nanoTime() - start;
+        }
+        return archive;
+    }
+
+    private static long findEndOfCentralDirectory(final ByteBuffer[] bufs, final long offset, final long length) throws IOException {
+        if (length < EOCD_END) {
+            throw new IOException("Invalid archive");
+        }
+        // find the directory by looking first at its expected location
+        long eocd = length - EOCD_END;
+        if (getInt(bufs, offset + eocd) == SIG_EOCD) {
+            return eocd;
+        }
+        // there is a comment; the record must be within the maximum comment length of the end, so copy that window
+        // out and work our way backwards over it with a reverse Horspool search
+        final int windowLen = (int) min(length, EOCD_END + 0xffff);
+        final long windowStart = length - windowLen;
+        final byte[] window = getBytes(bufs, offset + windowStart, windowLen);
+        int i = windowLen - EOCD_END - 1;
+        while (i >= 0) {
+            if (window[i] == EOCD_SIG_0 && window[i + 1] == EOCD_SIG_1 && window[i + 2] == EOCD_SIG_2 && window[i + 3] == EOCD_SIG_3) {
+                return windowStart + i;
+            }
+            i -= EOCD_SKIP[window[i] & 0xff];
+        }
+        throw new IOException("Invalid archive");
+    }
+
+    static ProbingIndex createIndex(final long length, final int entries) {
         if (length <= 0xfffe) {
-            index = new TinyIndex(entries);
+            return new TinyIndex(entries);
         } else if (length <= 0xffff_ffffeL) {
-            index = new LargeIndex(entries);
+            return new LargeIndex(entries);
         } else {
-            index = new HugeIndex(entries);
+            return new HugeIndex(entries);
         }
+    }
+
+    private static Index buildIndex(final ByteBuffer[] bufs, final long offset, final long length, final long cd, final int entries) throws IOException {
+        final ProbingIndex index = createIndex(length, entries);
         // iterate the directory
         final int mask = index.getMask();
         long cde = cd;
@@ -286,7 +734,73 @@ public final class Archive implements Closeable {
             index.put(hc & mask, cde);
             cde = cde + CDE_END + getUnsignedShort(bufs, offset + cde + CDE_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + cde + CDE_EXTRA_LENGTH) + getUnsignedShort(bufs, offset + cde + CDE_COMMENT_LENGTH);
         }
-        return new Archive(bufs, offset, length, cd, index);
+        return index;
+    }
+
+    private static Index buildIndexFromHashes(final ByteBuffer[] bufs, final long offset, final long length, final long cd, final int entries, final boolean parallel, final boolean perfect) throws IOException {
+        // find the entry boundaries first; this only reads three lengths per entry
+        final long[] cdes = new long[entries];
+        long cde = cd;
+        for (int i = 0; i < entries; i ++) {
+            if (getInt(bufs, offset + cde + CDE_SIGNATURE) != SIG_CDE) {
+                throw new IOException("Archive appears to be corrupted");
+            }
+            cdes[i] = cde;
+            cde = cde + CDE_END + getUnsignedShort(bufs, offset + cde + CDE_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + cde + CDE_EXTRA_LENGTH) + getUnsignedShort(bufs, offset + cde + CDE_COMMENT_LENGTH);
+        }
+        final int[] hashCodes = new int[entries];
+        if (parallel) {
+            // decode and hash the names in parallel, which is where the time goes
+            ForkJoinPool.commonPool().invoke(new HashTask(bufs, offset, cdes, hashCodes, 0, entries));
+        } else {
+            for (int i = 0; i < entries; i ++) {
+                hashCodes[i] = getHashCodeOfEntry(bufs, offset + cdes[i]);
+            }
+        }
+        if (perfect) {
+            final Index index = PerfectIndex.build(length, cd, cdes, hashCodes);
+            if (index != null) {
+                return index;
+            }
+            // otherwise fall back to linear probing
+        }
+        // merge in directory order so that the table is identical to the one built sequentially
+        final ProbingIndex index = createIndex(length, entries);
+        final int mask = index.getMask();
+        for (int i = 0; i < entries; i ++) {
+            index.put(hashCodes[i] & mask, cdes[i]);
+        }
+        return index;
+    }
+
+    @SuppressWarnings("serial")
+    static final class HashTask extends RecursiveAction {
+        private final ByteBuffer[] bufs;
+        private final long offset;
+        private final long[] cdes;
+        private final int[] hashCodes;
+        private final int start;
+        private final int end;
+
+        HashTask(final ByteBuffer[] bufs, final long offset, final long[] cdes, final int[] hashCodes, final int start, final int end) {
+            this.bufs = bufs;
+            this.offset = offset;
+            this.cdes = cdes;
+            this.hashCodes = hashCodes;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > PARALLEL_INDEX_CHUNK) {
+                final int mid = start + end >>> 1;
+                invokeAll(new HashTask(bufs, offset, cdes, hashCodes, start, mid), new HashTask(bufs, offset, cdes, hashCodes, mid, end));
+            } else {
+                for (int i = start; i < end; i ++) {
+                    hashCodes[i] = getHashCodeOfEntry(bufs, offset + cdes[i]);
+                }
+            }
+        }
     }
 
     private static String getNameOfEntry(ByteBuffer[] bufs, long cde) {
@@ -329,11 +843,15 @@ public final class Archive implements Closeable {
     }
 
     public long getFirstEntryHandle() {
+        if (cd >= length || getInt(bufs, offset + cd + CDE_SIGNATURE) != SIG_CDE) {
+            // empty archive
+            return -1;
+        }
         return cd;
     }
 
     public long getNextEntryHandle(long entryHandle) {
-        final long next = entryHandle + CDE_END + getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + entryHandle + CDE_EXTRA_LENGTH);
+        final long next = entryHandle + CDE_END + getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + entryHandle + CDE_EXTRA_LENGTH) + getUnsignedShort(bufs, offset + entryHandle + CDE_COMMENT_LENGTH);
         if (next >= length || getInt(bufs, offset + next + CDE_SIGNATURE) != SIG_CDE) {
             return -1;
         }
@@ -341,86 +859,729 @@ public final class Archive implements Closeable {
     }
 
     public long getEntryHandle(String fileName) {
-        final int mask = index.getMask();
-        final int base = fileName.hashCode();
+        return getEntryHandle(fileName, fileName.hashCode());
+    }
+
+    /**
+     * Get the handle of the entry with the given name without materializing the name as a string.
+     *
+     * @param fileName the entry name (must not be {@code null})
+     * @return the entry handle, or -1 if there is no such entry
+     */
+    public long getEntryHandle(CharSequence fileName) {
+        Assert.checkNotNullParam("fileName", fileName);
+        if (fileName instanceof String) {
+            return getEntryHandle((String) fileName);
+        }
+        int hc = 0;
+        final int length = fileName.length();
+        for (int i = 0; i < length; i ++) {
+            hc = hc * 31 + fileName.charAt(i);
+        }
+        return getEntryHandle(fileName, hc);
+    }
+
+    private long getEntryHandle(CharSequence fileName, int hashCode) {
+        final Index releaseIndex = this.releaseIndex;
+        if (releaseIndex != null && ! startsWith(fileName, VERSIONS_PREFIX)) {
+            final int mask = releaseIndex.getMask();
+            long entryHandle;
+            for (int i = 0; i < mask; i ++) {
+                entryHandle = releaseIndex.get(hashCode + i & mask);
+                if (entryHandle == -1) {
+                    return lookupResult(-1, i + 1);
+                }
+                if (entryNameMatches(entryHandle, getVersionPrefixLength(entryHandle), fileName, false)) {
+                    return lookupResult(entryHandle, i + 1);
+                }
+            }
+            return lookupResult(-1, mask);
+        }
+        final Index index = this.index;
+        final int maxProbes = index.getMaxProbes();
         long entryHandle;
-        for (int i = 0; i < mask; i ++) {
-            entryHandle = index.get(base + i & mask);
+        for (int i = 0; i < maxProbes; i ++) {
+            entryHandle = index.get(index.probe(hashCode, i));
             if (entryHandle == -1) {
+                return lookupResult(-1, i + 1);
+            }
+            if (entryNameMatches(entryHandle, 0, fileName, false)) {
+                return lookupResult(entryHandle, i + 1);
+            }
+        }
+        return lookupResult(-1, maxProbes);
+    }
+
+    private long lookupResult(long entryHandle, int probes) {
+        final ArchiveStatistics.Recorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordLookup(probes, entryHandle != -1);
+        }
+        return entryHandle;
+    }
+
+    private static boolean startsWith(CharSequence seq, String prefix) {
+        final int length = prefix.length();
+        if (seq.length() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i ++) {
+            if (seq.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the handle of the entry whose name is given as UTF-8 encoded bytes, without decoding the name into a string.
+     *
+     * @param utf8 the array holding the encoded entry name (must not be {@code null})
+     * @param offs the offset of the name in the array
+     * @param len the length of the encoded name
+     * @return the entry handle, or -1 if there is no such entry
+     */
+    public long getEntryHandle(byte[] utf8, int offs, int len) {
+        Assert.checkNotNullParam("utf8", utf8);
+        Assert.checkArrayBounds(utf8, offs, len);
+        final int end = offs + len;
+        int hc = 0;
+        int cp;
+        for (int i = offs; i < end; i += Utf8.getByteCount(utf8[i] & 0xff)) {
+            cp = Utf8.codePointAt(utf8, i, end);
+            if (Character.isSupplementaryCodePoint(cp)) {
+                hc = hc * 31 + Character.highSurrogate(cp);
+                hc = hc * 31 + Character.lowSurrogate(cp);
+            } else {
+                hc = hc * 31 + cp;
+            }
+        }
+        final Index releaseIndex = this.releaseIndex;
+        final boolean versioned = releaseIndex != null && ! startsWith(utf8, offs, len, VERSIONS_PREFIX);
+        final Index index = versioned ? releaseIndex : this.index;
+        final int maxProbes = index.getMaxProbes();
+        long entryHandle;
+        for (int i = 0; i < maxProbes; i ++) {
+            entryHandle = index.get(index.probe(hc, i));
+            if (entryHandle == -1) {
+                return lookupResult(-1, i + 1);
+            }
+            if (entryNameEquals(entryHandle, versioned ? getVersionPrefixLength(entryHandle) : 0, utf8, offs, len)) {
+                return lookupResult(entryHandle, i + 1);
+            }
+        }
+        return lookupResult(-1, maxProbes);
+    }
+
+    private static boolean startsWith(byte[] bytes, int offs, int len, String asciiPrefix) {
+        final int length = asciiPrefix.length();
+        if (len < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i ++) {
+            if (bytes[offs + i] != asciiPrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean entryNameEquals(final long entryHandle, final String fileName) {
+        return entryNameMatches(entryHandle, 0, fileName, false);
+    }
+
+    /**
+     * Determine whether the name of the given entry is equal to the given character sequence.
+     *
+     * @param entryHandle the entry handle
+     * @param fileName the name to compare against (must not be {@code null})
+     * @return {@code true} if the name is equal, {@code false} otherwise
+     */
+    public boolean entryNameEquals(final long entryHandle, final CharSequence fileName) {
+        return entryNameMatches(entryHandle, 0, fileName, false);
+    }
+
+    /**
+     * Determine whether the name of the given entry starts with the given prefix, without materializing the name.
+     *
+     * @param entryHandle the entry handle
+     * @param prefix the prefix to test for (must not be {@code null})
+     * @return {@code true} if the name starts with the prefix, {@code false} otherwise
+     */
+    public boolean entryNameStartsWith(final long entryHandle, final CharSequence prefix) {
+        return entryNameMatches(entryHandle, 0, prefix, true);
+    }
+
+    /**
+     * Determine whether the name of the given entry is equal to the given UTF-8 encoded bytes.
+     *
+     * @param entryHandle the entry handle
+     * @param utf8 the array holding the encoded name (must not be {@code null})
+     * @param offs the offset of the name in the array
+     * @param len the length of the encoded name
+     * @return {@code true} if the name is equal, {@code false} otherwise
+     */
+    public boolean entryNameEquals(final long entryHandle, final byte[] utf8, final int offs, final int len) {
+        Assert.checkNotNullParam("utf8", utf8);
+        Assert.checkArrayBounds(utf8, offs, len);
+        return entryNameEquals(entryHandle, 0, utf8, offs, len);
+    }
+
+    private boolean entryNameEquals(final long entryHandle, final int skip, final byte[] utf8, final int offs, final int len) {
+        long name = offset + entryHandle + CDE_END + skip;
+        int nameLen = getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH) - skip;
+        boolean utf8Name = (getUnsignedShort(bufs, offset + entryHandle + CDE_GP_BITS) & GP_UTF_8) != 0;
+        if (utf8Name) {
+            if (nameLen != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i ++) {
+                if (getByte(bufs, name + i) != utf8[offs + i]) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            final int end = offs + len;
+            int i, j;
+            for (i = 0, j = offs; i < nameLen && j < end; i ++, j += Utf8.getByteCount(utf8[j] & 0xff)) {
+                if (Cp437.charFor(getUnsignedByte(bufs, name + i)) != Utf8.codePointAt(utf8, j, end)) {
+                    return false;
+                }
+            }
+            return i == nameLen && j >= end;
+        }
+    }
+
+    private boolean entryNameMatches(final long entryHandle, final int skip, final CharSequence fileName, final boolean prefix) {
+        long name = offset + entryHandle + CDE_END + skip;
+        int nameLen = getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH) - skip;
+        boolean utf8 = (getUnsignedShort(bufs, offset + entryHandle + CDE_GP_BITS) & GP_UTF_8) != 0;
+        final int length = fileName.length();
+        int cp;
+        if (utf8) {
+            long i;
+            int j;
+            for (i = 0, j = 0; i < nameLen && j < length; i += Utf8.getByteCount(getUnsignedByte(bufs, name + i)), j += Character.charCount(cp)) {
+                cp = Character.codePointAt(fileName, j);
+                if (Utf8.codePointAt(bufs, name + i) != cp) {
+                    return false;
+                }
+            }
+            return j == length && (prefix || i == nameLen);
+        } else {
+            int i, j;
+            for (i = 0, j = 0; i < nameLen && j < length; i ++, j += Character.charCount(cp)) {
+                cp = Character.codePointAt(fileName, j);
+                if (Cp437.charFor(getUnsignedByte(bufs, name + i)) != cp) {
+                    return false;
+                }
+            }
+            return j == length && (prefix || i == nameLen);
+        }
+    }
+
+    /**
+     * Get the length of the {@code META-INF/versions/<n>/} prefix of the given entry's name.
+     *
+     * @param entryHandle the entry handle
+     * @return the prefix length, or 0 if the entry is not a versioned entry
+     */
+    private int getVersionPrefixLength(final long entryHandle) {
+        if (! entryNameMatches(entryHandle, 0, VERSIONS_PREFIX, true)) {
+            return 0;
+        }
+        final long name = offset + entryHandle + CDE_END;
+        final int nameLen = getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH);
+        int i = VERSIONS_PREFIX.length();
+        int c;
+        while (i < nameLen) {
+            c = getUnsignedByte(bufs, name + i);
+            if (c == '/') {
+                return i == VERSIONS_PREFIX.length() ? 0 : i + 1;
+            } else if (c < '0' || c > '9') {
+                return 0;
+            }
+            i ++;
+        }
+        return 0;
+    }
+
+    /**
+     * Get the release number of a versioned entry.
+     *
+     * @param entryHandle the entry handle
+     * @param prefixLength the length of the entry's version prefix (must be greater than 0)
+     * @return the release number, or -1 if it is not a valid release number
+     */
+    private int getVersion(final long entryHandle, final int prefixLength) {
+        final long name = offset + entryHandle + CDE_END;
+        long version = 0;
+        for (int i = VERSIONS_PREFIX.length(); i < prefixLength - 1; i ++) {
+            version = version * 10 + getUnsignedByte(bufs, name + i) - '0';
+            if (version > Integer.MAX_VALUE) {
                 return -1;
             }
-            if (entryNameEquals(entryHandle, fileName)) {
-                return entryHandle;
+        }
+        return (int) version;
+    }
+
+    /**
+     * Determine whether this archive is a multi-release JAR, that is, whether its manifest has a {@code Multi-Release}
+     * main attribute with a value of {@code true}.
+     *
+     * @return {@code true} if the archive is a multi-release JAR, {@code false} otherwise
+     * @throws IOException if the manifest could not be read
+     */
+    public boolean isMultiRelease() throws IOException {
+        final long handle = (base == null ? this : base).getEntryHandle("META-INF/MANIFEST.MF");
+        if (handle == -1) {
+            return false;
+        }
+        try (InputStream is = getEntryStream(handle)) {
+            return Boolean.parseBoolean(new Manifest(is).getMainAttributes().getValue("Multi-Release"));
+        }
+    }
+
+    /**
+     * Get a view of this archive which resolves entry names for the current Java runtime release.
+     *
+     * @return the multi-release view (not {@code null})
+     * @throws IOException if the manifest could not be read
+     * @see #getMultiReleaseView(int)
+     */
+    public Archive getMultiReleaseView() throws IOException {
+        return getMultiReleaseView(JDKSpecific.getRuntimeRelease());
+    }
+
+    /**
+     * Get a view of this archive which resolves entry names for the given Java release.  If the archive is a
+     * multi-release JAR, then looking up a name in the view yields the entry under
+     * {@code META-INF/versions/<n>/} with the highest {@code n} not greater than the target release, or else the
+     * unversioned entry.  Entries which are only present for later releases are not visible.  The table of resolved
+     * names is computed once when the view is created, so every lookup remains a single hash probe.
+     * <p>
+     * Names which start with {@code META-INF/versions/} are looked up verbatim, and entry names, iteration,
+     * and directory listing all reflect the actual entries of the archive.  The view shares the resources of this
+     * archive; closing the view has no effect.
+     *
+     * @param release the target release (must be at least 8)
+     * @return the multi-release view (not {@code null})
+     * @throws IOException if the manifest could not be read
+     */
+    public Archive getMultiReleaseView(int release) throws IOException {
+        Assert.checkMinimumParameter("release", 8, release);
+        final Archive base = this.base == null ? this : this.base;
+        if (! base.isMultiRelease()) {
+            return new Archive(base, null, false);
+        }
+        // first pick the entry to use for each name
+        final HashMap<String, long[]> selected = new HashMap<>();
+        for (long handle = base.getFirstEntryHandle(); handle != -1; handle = base.getNextEntryHandle(handle)) {
+            final String name = base.getEntryName(handle);
+            final int prefixLength = base.getVersionPrefixLength(handle);
+            final int version;
+            final String key;
+            if (prefixLength == 0) {
+                if (name.startsWith(VERSIONS_PREFIX)) {
+                    // not a valid versioned entry; only reachable by its full name
+                    continue;
+                }
+                version = 0;
+                key = name;
+            } else {
+                version = base.getVersion(handle, prefixLength);
+                if (version == -1 || version > release || prefixLength == name.length()) {
+                    continue;
+                }
+                key = name.substring(prefixLength);
+            }
+            final long[] existing = selected.get(key);
+            if (existing == null) {
+                selected.put(key, new long[] { handle, version });
+            } else if (version > existing[1]) {
+                existing[0] = handle;
+                existing[1] = version;
+            }
+        }
+        // now build the table
+        final ProbingIndex releaseIndex = createIndex(length, selected.size());
+        final int mask = releaseIndex.getMask();
+        for (Map.Entry<String, long[]> entry : selected.entrySet()) {
+            releaseIndex.put(entry.getKey().hashCode() & mask, entry.getValue()[0]);
+        }
+        return new Archive(base, releaseIndex, false);
+    }
+
+    /**
+     * Determine whether the given directory exists in this archive, either as an explicit entry or because it is
+     * implied by the name of some other entry.
+     *
+     * @param dirName the directory name, with or without a trailing {@code /}; the empty string designates the root
+     * @return {@code true} if the directory exists, {@code false} otherwise
+     */
+    public boolean directoryExists(String dirName) {
+        Assert.checkNotNullParam("dirName", dirName);
+        return getDirectoryIndex().contains(DirectoryIndex.normalize(dirName));
+    }
+
+    /**
+     * Get the handles of the entries which are immediate children of the given directory, including explicit
+     * subdirectory entries.  The directory index is built on the first call to this or a related method.
+     *
+     * @param dirName the directory name, with or without a trailing {@code /}; the empty string designates the root
+     * @return the child entry handles (not {@code null}), empty if the directory does not exist
+     */
+    public long[] getChildEntryHandles(String dirName) {
+        Assert.checkNotNullParam("dirName", dirName);
+        return getDirectoryIndex().getEntryHandles(DirectoryIndex.normalize(dirName));
+    }
+
+    /**
+     * Get the names of the immediate subdirectories of the given directory, whether or not they have an entry of
+     * their own.  Each name is the full directory name including a trailing {@code /}.
+     *
+     * @param dirName the directory name, with or without a trailing {@code /}; the empty string designates the root
+     * @return the immutable list of subdirectory names (not {@code null}), empty if the directory does not exist
+     */
+    public List<String> getChildDirectoryNames(String dirName) {
+        Assert.checkNotNullParam("dirName", dirName);
+        return getDirectoryIndex().getSubdirectoryNames(DirectoryIndex.normalize(dirName));
+    }
+
+    private DirectoryIndex getDirectoryIndex() {
+        if (handle) {
+            return base.getDirectoryIndex();
+        }
+        DirectoryIndex directoryIndex = this.directoryIndex;
+        if (directoryIndex == null) {
+            synchronized (this) {
+                directoryIndex = this.directoryIndex;
+                if (directoryIndex == null) {
+                    this.directoryIndex = directoryIndex = DirectoryIndex.build(this);
+                }
+            }
+        }
+        return directoryIndex;
+    }
+
+    private long getLocalHeader(long entryHandle) {
+        long lh = getUnsignedInt(bufs, offset + entryHandle + CDE_LOCAL_HEADER_OFFSET);
+        if (lh == 0xffff_ffffL) {
+            long zip64 = getExtraRecord(entryHandle, EXT_ID_ZIP64);
+            if (zip64 != -1) {
+                lh = getLong(bufs, offset + zip64 + getZip64FieldOffset(entryHandle, ZIP64_LOCAL_HEADER_OFFSET));
+            }
+        }
+        return lh;
+    }
+
+    public String getEntryName(long entryHandle) {
+        return getNameOfEntry(bufs, offset + entryHandle);
+    }
+
+    public ByteBuffer getEntryContents(long entryHandle) throws IOException {
+        final ByteBuffer prefetched = contentCache.take(entryHandle);
+        if (prefetched != null) {
+            return prefetched;
+        }
+        return readEntryContents(entryHandle);
+    }
+
+    /**
+     * Warm the given entries in the background using the common fork/join pool.  Compressed entries are inflated
+     * into a size-limited cache which {@link #getEntryContents(long)} consumes, and the mapped pages of stored
+     * entries are touched so that they are resident.  Names which do not correspond to an entry are ignored.
+     *
+     * @param names the names of the entries to prefetch (must not be {@code null})
+     * @return a future which completes when prefetching is finished (not {@code null})
+     */
+    public CompletableFuture<Void> prefetch(Collection<String> names) {
+        Assert.checkNotNullParam("names", names);
+        final long[] handles = new long[names.size()];
+        int cnt = 0;
+        for (String name : names) {
+            final long handle = getEntryHandle(name);
+            if (handle != -1) {
+                handles[cnt++] = handle;
+            }
+        }
+        return prefetch(Arrays.copyOf(handles, cnt), ForkJoinPool.commonPool(), true);
+    }
+
+    /**
+     * Warm the given entries in the background.  Compressed entries are inflated into a size-limited cache which
+     * {@link #getEntryContents(long)} consumes; each cached entry is handed out once.  Entries which do not fit in
+     * the cache are skipped.  No more than one task per available processor is submitted to the executor, and
+     * entries are processed roughly in the given order, so the most important entries should come first.
+     * <p>
+     * Prefetching is advisory: an entry which cannot be read is skipped, and the problem is reported when the
+     * entry is actually read.
+     *
+     * @param entryHandles the handles of the entries to prefetch (must not be {@code null})
+     * @param executor the executor to run prefetch tasks on (must not be {@code null})
+     * @param touchPages {@code true} to touch the mapped pages of stored entries so that they are resident
+     * @return a future which completes when prefetching is finished (not {@code null})
+     */
+    public CompletableFuture<Void> prefetch(long[] entryHandles, Executor executor, boolean touchPages) {
+        Assert.checkNotNullParam("entryHandles", entryHandles);
+        Assert.checkNotNullParam("executor", executor);
+        final long[] handles = entryHandles.clone();
+        final int tasks = min(handles.length, ProcessorInfo.availableProcessors());
+        if (tasks == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks];
+        for (int i = 0; i < tasks; i ++) {
+            final int first = i;
+            futures[i] = CompletableFuture.runAsync(() -> {
+                // interleave so that the earliest entries are warmed first
+                for (int j = first; j < handles.length; j += tasks) {
+                    prefetchEntry(handles[j], touchPages);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private void prefetchEntry(long entryHandle, boolean touchPages) {
+        try {
+            if (getCompressionMethod(entryHandle) == METHOD_STORED) {
+                if (needsVerification(entryHandle)) {
+                    // verification reads every page anyway
+                    readEntryContents(entryHandle);
+                } else if (touchPages) {
+                    final ByteBuffer[] data = getData();
+                    touch(data, dataOffset + getDataOffset(data, getLocalHeader(entryHandle)), getUncompressedSize(entryHandle));
+                }
+                return;
+            }
+            final long size = getUncompressedSize(entryHandle);
+            if (contentCache.contains(entryHandle) || ! contentCache.reserve(size)) {
+                return;
+            }
+            boolean ok = false;
+            try {
+                contentCache.put(entryHandle, readEntryContents(entryHandle));
+                ok = true;
+            } finally {
+                if (! ok) {
+                    contentCache.unreserve(size);
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // reported when the entry is read for real
+        }
+    }
+
+    private static int touchSink;
+
+    private static void touch(final ByteBuffer[] data, long idx, final long len) {
+        if (len <= 0) {
+            return;
+        }
+        final long end = idx + len;
+        int sum = getByte(data, end - 1);
+        for (; idx < end; idx += PAGE_SIZE) {
+            sum += getByte(data, idx);
+        }
+        // keep the reads from being optimized away
+        touchSink = sum;
+    }
+
+    private ByteBuffer readEntryContents(long entryHandle) throws IOException {
+        long size = getUncompressedSize(entryHandle);
+        long compSize = getCompressedSize(entryHandle);
+        if (size > 0x1000_0000 || compSize > 0x1000_0000) {
+            throw new IOException("Entry is too large to read into RAM");
+        }
+        long localHeader = getLocalHeader(entryHandle);
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+            throw new IOException("Cannot read encrypted entries");
+        }
+        final long offset = getDataOffset(data, localHeader);
+        final int method = getCompressionMethod(entryHandle);
+        switch (method) {
+            case METHOD_STORED: {
+                if (needsVerification(entryHandle)) {
+                    final CRC32 crc32 = new CRC32();
+                    updateCrc(crc32, data, dataOffset + offset, size);
+                    checkCrc(entryHandle, crc32);
+                }
+                return bufferOf(data, dataOffset + offset, (int) size);
+            }
+            case METHOD_DEFLATE: {
+                final CRC32 crc32 = needsVerification(entryHandle) ? new CRC32() : null;
+                final long start = recorder == null ? 0 : System.nanoTime();
+                final Inflater inflater = inflaterPool.acquire();
+                final ByteBuffer contents;
+                try {
+                    contents = JDKSpecific.inflate(inflater, data, dataOffset + offset, (int) compSize, (int) size, crc32);
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                } finally {
+                    inflaterPool.release(inflater);
+                }
+                if (recorder != null) {
+                    recordInflate(entryHandle, size, start);
+                }
+                if (crc32 != null) {
+                    checkCrc(entryHandle, crc32);
+                }
+                return contents;
+            }
+            default: {
+                throw new IOException("Unsupported compression scheme");
             }
         }
-        return -1;
     }
 
-    public boolean entryNameEquals(final long entryHandle, final String fileName) {
-        long name = entryHandle + CDE_END;
-        int nameLen = getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH);
-        boolean utf8 = (getUnsignedShort(bufs, offset + entryHandle + CDE_GP_BITS) & GP_UTF_8) != 0;
-        final int length = fileName.length();
-        if (utf8) {
-            long i;
-            int j;
-            for (i = 0, j = 0; i < nameLen && j < length; i += Utf8.getByteCount(getUnsignedByte(bufs, offset + name + i)), j = fileName.offsetByCodePoints(j, 1)) {
-                if (Utf8.codePointAt(bufs, offset + name + i) != fileName.codePointAt(j)) {
-                    return false;
+    /**
+     * Read the uncompressed contents of an entry into the given buffer, starting at its position.  Compressed entries
+     * are inflated straight into the buffer, so when it is a direct buffer no heap copy of the contents is made at
+     * all; this suits large entries which are destined for a channel.
+     *
+     * @param entryHandle the entry handle
+     * @param target the buffer to fill (must not be {@code null})
+     * @return the number of bytes read, by which the buffer position is advanced
+     * @throws BufferOverflowException if the buffer does not have enough space for the entry
+     * @throws IOException if the entry could not be read
+     */
+    public int getEntryContents(long entryHandle, ByteBuffer target) throws IOException {
+        Assert.checkNotNullParam("target", target);
+        final long size = getUncompressedSize(entryHandle);
+        if (size > target.remaining()) {
+            throw new BufferOverflowException();
+        }
+        final ByteBuffer prefetched = contentCache.take(entryHandle);
+        if (prefetched != null) {
+            target.put(prefetched);
+            return (int) size;
+        }
+        long localHeader = getLocalHeader(entryHandle);
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+            throw new IOException("Cannot read encrypted entries");
+        }
+        final long offset = getDataOffset(data, localHeader);
+        final CRC32 crc32 = needsVerification(entryHandle) ? new CRC32() : null;
+        switch (getCompressionMethod(entryHandle)) {
+            case METHOD_STORED: {
+                if (crc32 != null) {
+                    updateCrc(crc32, data, dataOffset + offset, size);
+                }
+                for (ByteBuffer slice : slicesOf(data, dataOffset + offset, size)) {
+                    target.put(slice);
                 }
+                break;
             }
-            return i == nameLen && j == length;
-        } else {
-            int i, j;
-            for (i = 0, j = 0; i < nameLen && j < length; i++, j = fileName.offsetByCodePoints(j, 1)) {
-                if (Cp437.charFor(getUnsignedByte(bufs, offset + i + entryHandle + CDE_END)) != fileName.codePointAt(j)) {
-                    return false;
+            case METHOD_DEFLATE: {
+                // never write past the end of the entry
+                final ByteBuffer out = target.duplicate();
+                out.limit(out.position() + (int) size);
+                final long start = recorder == null ? 0 : System.nanoTime();
+                final Inflater inflater = inflaterPool.acquire();
+                try {
+                    JDKSpecific.inflate(inflater, data, dataOffset + offset, getCompressedSize(entryHandle), out, crc32);
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                } finally {
+                    inflaterPool.release(inflater);
+                }
+                if (recorder != null) {
+                    recordInflate(entryHandle, size, start);
+                }
+                if (out.hasRemaining()) {
+                    throw new IOException("Corrupted compression stream");
                 }
+                target.position(out.position());
+                break;
             }
-            return i == nameLen && j == length;
-        }
-    }
-
-    private long getLocalHeader(long entryHandle) {
-        long lh = getUnsignedInt(bufs, offset + entryHandle + CDE_LOCAL_HEADER_OFFSET);
-        if (lh == 0xffff_ffffL) {
-            long zip64 = getExtraRecord(entryHandle, EXT_ID_ZIP64);
-            if (zip64 != -1) {
-                lh = getLong(bufs, offset + zip64 + ZIP64_LOCAL_HEADER_OFFSET);
+            default: {
+                throw new IOException("Unsupported compression scheme");
             }
         }
-        return lh;
+        if (crc32 != null) {
+            checkCrc(entryHandle, crc32);
+        }
+        return (int) size;
     }
 
-    public String getEntryName(long entryHandle) {
-        return getNameOfEntry(bufs, entryHandle);
+    /**
+     * Get the contents of a stored (uncompressed) entry as a sequence of read-only buffers which are views of the
+     * archive's own storage.  No data is copied, so this works for entries of any size, including those which span
+     * more than one mapped segment of the archive.
+     *
+     * @param entryHandle the entry handle
+     * @return the buffers which together hold the entry contents, in order (not {@code null})
+     * @throws IOException if the entry is compressed or encrypted
+     */
+    public ByteBuffer[] getEntryBuffers(long entryHandle) throws IOException {
+        long localHeader = getLocalHeader(entryHandle);
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+            throw new IOException("Cannot read encrypted entries");
+        }
+        if (getCompressionMethod(entryHandle) != METHOD_STORED) {
+            throw new IOException("Cannot directly access compressed entries");
+        }
+        return slicesOf(data, dataOffset + getDataOffset(data, localHeader), getUncompressedSize(entryHandle));
     }
 
-    public ByteBuffer getEntryContents(long entryHandle) throws IOException {
-        long size = getUncompressedSize(entryHandle);
-        long compSize = getCompressedSize(entryHandle);
-        if (size > 0x1000_0000 || compSize > 0x1000_0000) {
-            throw new IOException("Entry is too large to read into RAM");
-        }
+    /**
+     * Transfer the uncompressed contents of an entry to the given channel.  Stored entries are written directly from
+     * the archive's buffers without any intermediate copy; deflated entries are inflated through a reusable
+     * per-thread output buffer.
+     *
+     * @param entryHandle the entry handle
+     * @param target the channel to write to (must not be {@code null})
+     * @return the number of bytes written
+     * @throws IOException if the entry could not be read or the channel could not be written
+     */
+    public long transferEntryTo(long entryHandle, WritableByteChannel target) throws IOException {
+        Assert.checkNotNullParam("target", target);
         long localHeader = getLocalHeader(entryHandle);
-        if ((getUnsignedShort(bufs, offset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
             throw new IOException("Cannot read encrypted entries");
         }
-        final long offset = getDataOffset(localHeader);
+        final long offset = getDataOffset(data, localHeader);
         final int method = getCompressionMethod(entryHandle);
         switch (method) {
             case METHOD_STORED: {
-                return bufferOf(bufs, this.offset + offset, (int) size);
+                final long size = getUncompressedSize(entryHandle);
+                final ByteBuffer[] slices = slicesOf(data, dataOffset + offset, size);
+                if (target instanceof GatheringByteChannel) {
+                    final GatheringByteChannel gathering = (GatheringByteChannel) target;
+                    long cnt = 0;
+                    while (cnt < size) {
+                        cnt += gathering.write(slices);
+                    }
+                } else {
+                    for (ByteBuffer slice : slices) {
+                        while (slice.hasRemaining()) {
+                            target.write(slice);
+                        }
+                    }
+                }
+                return size;
             }
             case METHOD_DEFLATE: {
-                final Inflater inflater = new Inflater(true);
+                final long start = recorder == null ? 0 : System.nanoTime();
+                final Inflater inflater = inflaterPool.acquire();
+                final long size;
                 try {
-                    return JDKSpecific.inflate(inflater, bufs, this.offset + offset, (int) compSize, (int) size);
+                    size = JDKSpecific.inflateTo(inflater, data, dataOffset + offset, getCompressedSize(entryHandle), target);
                 } catch (DataFormatException e) {
                     throw new IOException(e);
                 } finally {
-                    inflater.end();
+                    inflaterPool.release(inflater);
+                }
+                if (recorder != null) {
+                    recordInflate(entryHandle, size, start);
                 }
+                return size;
             }
             default: {
                 throw new IOException("Unsupported compression scheme");
@@ -428,49 +1589,269 @@ public final class Archive implements Closeable {
         }
     }
 
-    private long getDataOffset(final long localHeader) {
-        return localHeader + LH_END + getUnsignedShort(bufs, offset + localHeader + LH_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + localHeader + LH_EXTRA_LENGTH);
+    /**
+     * Get the position of the data of an entry, after its local header, within the archive.  For a stored entry this
+     * is where its contents begin.
+     *
+     * @param entryHandle the entry handle
+     * @return the data offset
+     * @throws IOException if the archive data could not be mapped
+     */
+    public long getEntryDataOffset(long entryHandle) throws IOException {
+        return getDataOffset(getData(), getLocalHeader(entryHandle));
+    }
+
+    /**
+     * Determine whether an entry is stored with its contents aligned to a page boundary of the file or buffer holding
+     * the archive, as some tools arrange for native libraries so that they can be mapped in place.
+     *
+     * @param entryHandle the entry handle
+     * @return {@code true} if the entry is stored and its contents begin on a page boundary
+     * @throws IOException if the archive data could not be mapped
+     */
+    public boolean isEntryPageAligned(long entryHandle) throws IOException {
+        return isEntryAligned(entryHandle, PAGE_SIZE);
+    }
+
+    /**
+     * Determine whether an entry is stored with its contents aligned to the given boundary of the file or buffer
+     * holding the archive.
+     *
+     * @param entryHandle the entry handle
+     * @param alignment the alignment, which must be a power of two
+     * @return {@code true} if the entry is stored and its contents begin on a multiple of the alignment
+     * @throws IOException if the archive data could not be mapped
+     */
+    public boolean isEntryAligned(long entryHandle, int alignment) throws IOException {
+        Assert.checkMinimumParameter("alignment", 1, alignment);
+        if (Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two");
+        }
+        return getCompressionMethod(entryHandle) == METHOD_STORED && (dataOffset + getEntryDataOffset(entryHandle) & alignment - 1) == 0;
+    }
+
+    /**
+     * Extract the uncompressed contents of an entry to a file, replacing the file if it exists.  This is meant for
+     * native libraries, which must be loaded from a file of their own.  If the archive was opened from a file and the
+     * entry is stored, the contents are copied from the archive file with {@link FileChannel#transferTo}, so that the
+     * operating system can copy them without passing them through the process (and without faulting in the mapped
+     * pages); otherwise they are written as by {@link #transferEntryTo}.  Stored entries can also be used in place
+     * with {@link #getEntryBuffers}.
+     * <p>
+     * The {@code transferTo} copy trusts the archive file on disk: it reads whatever file is at the archive path, and
+     * only a truncated file is detected.  If the archive was opened with {@link Flag#VERIFY_CHECKSUMS} and the entry
+     * has not been verified yet, the checksum of the written file is checked, whichever way it was written.
+     *
+     * @param entryHandle the entry handle
+     * @param target the file to write (must not be {@code null})
+     * @return the number of bytes written
+     * @throws IOException if the entry could not be read or the file could not be written
+     */
+    public long extractEntry(long entryHandle, Path target) throws IOException {
+        Assert.checkNotNullParam("target", target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = extractEntry(entryHandle, out);
+            if (needsVerification(entryHandle)) {
+                final CRC32 crc32 = new CRC32();
+                final ByteBuffer buf = ByteBuffer.allocate((int) min(size, 16384));
+                long cnt = 0;
+                while (cnt < size) {
+                    buf.clear();
+                    final int res = out.read(buf, cnt);
+                    if (res == -1) {
+                        throw new EOFException("Extracted file was truncated");
+                    }
+                    buf.flip();
+                    crc32.update(buf);
+                    cnt += res;
+                }
+                checkCrc(entryHandle, crc32);
+            }
+            return size;
+        }
+    }
+
+    private long extractEntry(long entryHandle, FileChannel out) throws IOException {
+        if (path == null || getCompressionMethod(entryHandle) != METHOD_STORED) {
+            return transferEntryTo(entryHandle, out);
+        }
+        long localHeader = getLocalHeader(entryHandle);
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+            throw new IOException("Cannot read encrypted entries");
+        }
+        final long position = dataOffset + getDataOffset(data, localHeader);
+        final long size = getUncompressedSize(entryHandle);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long cnt = 0;
+            while (cnt < size) {
+                final long res = in.transferTo(position + cnt, size - cnt, out);
+                if (res == 0 && position + cnt >= in.size()) {
+                    throw new EOFException("Archive was truncated after it was opened");
+                }
+                cnt += res;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the buffers holding the entry data, mapping the archive file if that was deferred.
+     */
+    ByteBuffer[] getData() throws IOException {
+        ByteBuffer[] data = this.data;
+        if (data == null) {
+            if (base != null) {
+                return base.getData();
+            }
+            synchronized (this) {
+                data = this.data;
+                if (data == null) {
+                    data = map(path);
+                    if (capacity(data) < length) {
+                        throw new IOException("Archive was truncated after it was opened");
+                    }
+                    this.data = data;
+                }
+            }
+        }
+        return data;
+    }
+
+    private long getDataOffset(final ByteBuffer[] data, final long localHeader) {
+        return localHeader + LH_END + getUnsignedShort(data, dataOffset + localHeader + LH_FILE_NAME_LENGTH) + getUnsignedShort(data, dataOffset + localHeader + LH_EXTRA_LENGTH);
     }
 
     public InputStream getEntryStream(final long entryHandle) throws IOException {
         long size = getCompressedSize(entryHandle);
         long localHeader = getLocalHeader(entryHandle);
-        if ((getUnsignedShort(bufs, offset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
             throw new IOException("Cannot read encrypted entries");
         }
-        final long offset = getDataOffset(localHeader);
+        final long offset = getDataOffset(data, localHeader);
         final int method = getCompressionMethod(entryHandle);
+        final InputStream is;
         switch (method) {
             case METHOD_STORED: {
-                return new ByteBufferInputStream(bufs, this.offset + offset, size);
+                is = new ByteBufferInputStream(data, dataOffset + offset, size);
+                break;
             }
             case METHOD_DEFLATE: {
-                return new InflaterInputStream(new ByteBufferInputStream(bufs, this.offset + offset, size));
+                is = inflaterPool.getInputStream(new ByteBufferInputStream(data, dataOffset + offset, size));
+                break;
             }
             default: {
                 throw new IOException("Unsupported compression scheme");
             }
         }
+        return needsVerification(entryHandle) ? new VerifyingInputStream(is, entryHandle) : is;
+    }
+
+    /**
+     * Get the ordinal of an entry, which is unique and less than {@link #maxOrdinal()}.  Ordinals may be sparse.
+     */
+    private int ordinalOf(long entryHandle) {
+        return (int) ((entryHandle - cd) / CDE_END);
+    }
+
+    private int maxOrdinal() {
+        // every central directory entry is at least CDE_END bytes long
+        return (int) ((length - cd) / CDE_END + 1);
+    }
+
+    private boolean needsVerification(long entryHandle) {
+        final AtomicLongArray verified = this.verified;
+        if (verified == null) {
+            return false;
+        }
+        final int bit = ordinalOf(entryHandle);
+        return (verified.get(bit >>> 6) & 1L << bit) == 0;
+    }
+
+    private void checkCrc(long entryHandle, CRC32 crc32) throws IOException {
+        if ((int) crc32.getValue() != getInt(bufs, offset + entryHandle + CDE_CRC_32)) {
+            throw new IOException("Checksum mismatch for entry " + getEntryName(entryHandle));
+        }
+        final int bit = ordinalOf(entryHandle);
+        final long mask = 1L << bit;
+        verified.getAndAccumulate(bit >>> 6, mask, (a, b) -> a | b);
     }
 
+    private void recordInflate(long entryHandle, long bytes, long start) {
+        recorder.recordInflate(ordinalOf(entryHandle), bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Get a nested archive.  Nested archives are cached by the outer archive, so repeated calls for the same entry
+     * return the same instance without parsing the nested central directory again.  A compressed nested archive is
+     * inflated into a temporary file which is then mapped, rather than onto the heap.
+     * <p>
+     * Each call acquires a reference to the nested archive which must be released by closing it.  The nested archive
+     * is released once it is no longer cached and all of its references have been closed.
+     *
+     * @param entryHandle the entry handle of the nested archive
+     * @return the nested archive (not {@code null})
+     * @throws IOException if the nested archive could not be opened
+     */
     public Archive getNestedArchive(long entryHandle) throws IOException {
+        final NestedArchiveCache cache = (base == null ? this : base).getNestedArchiveCache();
+        final Archive cached = cache.get(entryHandle);
+        if (cached != null) {
+            return cached;
+        }
+        return cache.put(entryHandle, openNestedArchive(entryHandle));
+    }
+
+    private NestedArchiveCache getNestedArchiveCache() {
+        NestedArchiveCache nestedArchiveCache = this.nestedArchiveCache;
+        if (nestedArchiveCache == null) {
+            synchronized (this) {
+                nestedArchiveCache = this.nestedArchiveCache;
+                if (nestedArchiveCache == null) {
+                    this.nestedArchiveCache = nestedArchiveCache = new NestedArchiveCache();
+                }
+            }
+        }
+        return nestedArchiveCache;
+    }
+
+    private Archive openNestedArchive(long entryHandle) throws IOException {
         long localHeader = getLocalHeader(entryHandle);
-        if ((getUnsignedShort(bufs, this.offset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
+        final ByteBuffer[] data = getData();
+        if ((getUnsignedShort(data, dataOffset + localHeader + LH_GP_BITS) & (GP_ENCRYPTED | GP_STRONG_ENCRYPTION)) != 0) {
             throw new IOException("Cannot read encrypted entries");
         }
-        final long offset = getDataOffset(localHeader);
+        final long offset = getDataOffset(data, localHeader);
         final int method = getCompressionMethod(entryHandle);
         if (method != METHOD_STORED) {
-            throw new IOException("Cannot open compressed nested archive");
+            // spill it to a file and map that
+            final Path tempFile = Files.createTempFile("nested", ".zip");
+            try {
+                final ByteBuffer[] bufs;
+                try (FileChannel fc = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    transferEntryTo(entryHandle, fc);
+                    bufs = map(fc);
+                }
+                return Archive.open(bufs, 0, capacity(bufs), null, flags);
+            } finally {
+                // the mapping outlives the file on most platforms
+                try {
+                    Files.delete(tempFile);
+                } catch (IOException e) {
+                    tempFile.toFile().deleteOnExit();
+                }
+            }
         }
         long size = getUncompressedSize(entryHandle);
-        if (size < Integer.MAX_VALUE) {
-            final ByteBuffer slice = sliceOf(bufs, this.offset + offset, (int) size);
+        if (path == null && size < Integer.MAX_VALUE) {
+            final ByteBuffer slice = sliceOf(data, dataOffset + offset, (int) size);
             if (slice != null) {
-                return Archive.open(slice);
+                return Archive.open(slice, flags);
             }
         }
-        return Archive.open(bufs, this.offset + offset, size);
+        // keep the nested archive in the same coordinates as the file which holds it
+        return Archive.open(data, dataOffset + offset, size, null, flags, path, false);
     }
 
     public boolean isCompressed(long entryHandle) {
@@ -482,9 +1863,9 @@ public final class Archive implements Closeable {
     }
 
     private long getExtraRecord(final long entryHandle, final int headerId) {
-        long extra = entryHandle + CDE_END + getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH) + getUnsignedShort(bufs, offset + entryHandle + CDE_COMMENT_LENGTH);
+        long extra = entryHandle + CDE_END + getUnsignedShort(bufs, offset + entryHandle + CDE_FILE_NAME_LENGTH);
         int extraLen = getUnsignedShort(bufs, offset + entryHandle + CDE_EXTRA_LENGTH);
-        for (int i = 0; i < extraLen; i = i + getUnsignedShort(bufs, offset + extra + i + 2)) {
+        for (int i = 0; i + 4 <= extraLen; i = i + 4 + getUnsignedShort(bufs, offset + extra + i + 2)) {
             if (getUnsignedShort(bufs, offset + extra + i) == headerId) {
                 return extra + i + 4;
             }
@@ -492,9 +1873,23 @@ public final class Archive implements Closeable {
         return -1;
     }
 
+    /**
+     * Get the offset of a field within the zip64 extra record of an entry, allowing for the fields which are absent.
+     */
+    private int getZip64FieldOffset(final long entryHandle, final int field) {
+        int fieldOffset = 0;
+        if (field > ZIP64_UNCOMPRESSED_SIZE && getUnsignedInt(bufs, offset + entryHandle + CDE_UNCOMPRESSED_SIZE) == 0xffff_ffffL) {
+            fieldOffset += 8;
+        }
+        if (field > ZIP64_COMPRESSED_SIZE && getUnsignedInt(bufs, offset + entryHandle + CDE_COMPRESSED_SIZE) == 0xffff_ffffL) {
+            fieldOffset += 8;
+        }
+        return fieldOffset;
+    }
+
     public long getUncompressedSize(long entryHandle) {
         long size = getUnsignedInt(bufs, offset + entryHandle + CDE_UNCOMPRESSED_SIZE);
-        if (size == 0xffffffff) {
+        if (size == 0xffff_ffffL) {
             long zip64 = getExtraRecord(entryHandle, EXT_ID_ZIP64);
             if (zip64 != -1) {
                 size = getLong(bufs, offset + zip64 + ZIP64_UNCOMPRESSED_SIZE);
@@ -505,10 +1900,10 @@ public final class Archive implements Closeable {
 
     public long getCompressedSize(long entryHandle) {
         long size = getUnsignedInt(bufs, offset + entryHandle + CDE_COMPRESSED_SIZE);
-        if (size == 0xffffffff) {
+        if (size == 0xffff_ffffL) {
             long zip64 = getExtraRecord(entryHandle, EXT_ID_ZIP64);
             if (zip64 != -1) {
-                size = getLong(bufs, offset + zip64 + ZIP64_COMPRESSED_SIZE);
+                size = getLong(bufs, offset + zip64 + getZip64FieldOffset(entryHandle, ZIP64_COMPRESSED_SIZE));
             }
         }
         return size;
@@ -526,13 +1921,154 @@ public final class Archive implements Closeable {
         return dosTimeStamp(getUnsignedShort(bufs, offset + entryHandle + CDE_MOD_TIME), getUnsignedShort(bufs, offset + entryHandle + CDE_MOD_DATE));
     }
 
+    /**
+     * Get a snapshot of the statistics of this archive, if it was opened with {@link Flag#STATISTICS}.  Describing
+     * the index shape walks the whole index, so this is not a cheap call.
+     *
+     * @param maxHotEntries the maximum number of entries to report in {@link ArchiveStatistics#getHotEntries()}
+     * @return the statistics snapshot, or {@code null} if statistics are not recorded for this archive
+     */
+    public ArchiveStatistics getStatistics(int maxHotEntries) {
+        Assert.checkMinimumParameter("maxHotEntries", 0, maxHotEntries);
+        final ArchiveStatistics.Recorder recorder = this.recorder;
+        if (recorder == null) {
+            return null;
+        }
+        // describe the shape of the index
+        final Index index = this.index;
+        final int size = index.getSlotCount();
+        int entries = 0;
+        long totalProbes = 0;
+        int maxProbes = 0;
+        int longestCluster = 0;
+        int cluster = 0;
+        // walk twice around so that a cluster which wraps is measured in full
+        for (int i = 0; i < size << 1; i ++) {
+            final long entryHandle = index.get(i % size);
+            if (entryHandle == -1) {
+                cluster = 0;
+                continue;
+            }
+            longestCluster = Math.max(longestCluster, ++ cluster);
+            if (i < size) {
+                entries ++;
+                final int probes = index.getProbeLength(getHashCodeOfEntry(bufs, offset + entryHandle), i);
+                totalProbes += probes;
+                maxProbes = Math.max(maxProbes, probes);
+            }
+        }
+        // a lookup never examines more slots than this
+        longestCluster = Math.min(longestCluster, index.getMaxProbes());
+        // find the hottest entries
+        final List<ArchiveStatistics.EntryStatistics> hot = new ArrayList<>();
+        if (maxHotEntries > 0) {
+            for (long entryHandle = getFirstEntryHandle(); entryHandle != -1; entryHandle = getNextEntryHandle(entryHandle)) {
+                final ArchiveStatistics.EntryStatistics entryStatistics = recorder.getEntryStatistics(ordinalOf(entryHandle), getEntryName(entryHandle));
+                if (entryStatistics != null) {
+                    hot.add(entryStatistics);
+                }
+            }
+            hot.sort(Comparator.comparingLong(ArchiveStatistics.EntryStatistics::getInflateNanos).reversed());
+        }
+        return new ArchiveStatistics(recorder.openNanos, entries, size, index.getTableBytes(), longestCluster, maxProbes,
+            entries == 0 ? 0 : (double) totalProbes / entries,
+            recorder.lookups.sum(), recorder.lookupMisses.sum(), recorder.lookupProbes.sum(), recorder.lookupMaxProbes.get(),
+            inflaterPool.getHitCount(), inflaterPool.getMissCount(),
+            recorder.inflates.sum(), recorder.inflatedBytes.sum(), recorder.inflateNanos.sum(),
+            Collections.unmodifiableList(new ArrayList<>(hot.subList(0, Math.min(maxHotEntries, hot.size())))));
+    }
+
+    /**
+     * Get the number of times that an inflater was reused from this archive's inflater pool.
+     *
+     * @return the pool hit count
+     */
+    public long getInflaterPoolHitCount() {
+        return inflaterPool.getHitCount();
+    }
+
+    /**
+     * Get the number of times that a new inflater had to be created because this archive's inflater pool had none
+     * available.
+     *
+     * @return the pool miss count
+     */
+    public long getInflaterPoolMissCount() {
+        return inflaterPool.getMissCount();
+    }
+
+    /**
+     * Acquire another reference to this archive, unless it has already been released.
+     *
+     * @return {@code true} if a reference was acquired, {@code false} if the archive is already released
+     */
+    boolean tryRetain() {
+        int oldVal;
+        do {
+            oldVal = refCount.get();
+            if (oldVal == 0) {
+                return false;
+            }
+        } while (! refCount.compareAndSet(oldVal, oldVal + 1));
+        return true;
+    }
+
+    /**
+     * Acquire another reference to this archive for a new holder, unless it has already been released.  The holder
+     * releases the reference by closing the returned handle, which shares everything with this archive.
+     *
+     * @return the handle, or {@code null} if the archive is already released
+     */
+    Archive acquire() {
+        return tryRetain() ? new Archive(this, null, true) : null;
+    }
+
+    /**
+     * Close this archive, releasing the reference to it held by the caller.  Once every reference has been released,
+     * its cached nested archives and pooled resources are released as well.  Closing a multi-release view, or
+     * closing an archive more than once, has no effect.
+     */
     public void close() {
+        if (base != null && ! handle) {
+            return;
+        }
+        if (closed.compareAndSet(false, true)) {
+            (handle ? base : this).release();
+        }
+    }
+
+    /**
+     * Release one reference to this archive.
+     */
+    void release() {
+        int oldVal;
+        do {
+            oldVal = refCount.get();
+            if (oldVal == 0) {
+                return;
+            }
+        } while (! refCount.compareAndSet(oldVal, oldVal - 1));
+        if (oldVal == 1) {
+            final NestedArchiveCache nestedArchiveCache = this.nestedArchiveCache;
+            if (nestedArchiveCache != null) {
+                nestedArchiveCache.close();
+            }
+            contentCache.clear();
+            inflaterPool.close();
+            final Runnable releaseAction = this.releaseAction;
+            if (releaseAction != null) {
+                releaseAction.run();
+            }
+        }
+    }
 
+    void setReleaseAction(final Runnable releaseAction) {
+        this.releaseAction = releaseAction;
     }
 
     private static long dosTimeStamp(int modTime, int modDate) {
         int year = 1980 + (modDate >> 9);
-        int month = 1 + ((modDate >> 5) & 0b1111);
+        int month = (modDate >> 5) & 0b1111;
         int day = modDate & 0b11111;
         int hour = modTime >> 11;
         int minute = (modTime >> 5) & 0b111111;
@@ -554,6 +2090,108 @@ public final class Archive implements Closeable {
         }
     }
 
+    /**
+     * Flags which affect the way an archive is opened.
+     */
+    public enum Flag {
+        /**
+         * Hash the entry names of very large archives in parallel on the common fork/join pool when building the index.
+         */
+        PARALLEL_INDEX,
+        /**
+         * Record statistics about opening the archive, looking up entries, and inflating entries, which can be read
+         * with {@link #getStatistics(int)}.
+         */
+        STATISTICS,
+        /**
+         * Index the entry names of all but the smallest archives with a perfect hash, so that every lookup examines a
+         * single index slot and the index takes less memory.  The index takes longer to build, which makes this best
+         * suited to archives which are opened often with a {@linkplain #open(Path, Path, Flag...) persistent index
+         * cache}.  If the entry names do not allow a perfect hash, the usual index is used instead.
+         */
+        PERFECT_INDEX,
+        /**
+         * Verify the CRC-32 of each entry the first time its contents are read.  The checksum is computed as part of
+         * the read, so no separate pass over the data is needed.  Streams are verified when they reach end of file.
+         */
+        VERIFY_CHECKSUMS,
+        /**
+         * When opening an archive from a path, read only the central directory at the end of the file, and map the
+         * file when entry data is first read.  Opening then touches no more of the file than it must, which helps when
+         * many archives are opened at once from a slow or remote file system.
+         */
+        DEFER_MAPPING,
+    }
+
+    /**
+     * A stream which computes the checksum of an entry as it is read and verifies it at end of file.
+     */
+    final class VerifyingInputStream extends FilterInputStream {
+        private final long entryHandle;
+        private final CRC32 crc32 = new CRC32();
+        private boolean eof;
+
+        VerifyingInputStream(final InputStream in, final long entryHandle) {
+            super(in);
+            this.entryHandle = entryHandle;
+        }
+
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                finish();
+            } else {
+                crc32.update(b);
+            }
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int cnt = super.read(b, off, len);
+            if (cnt == -1) {
+                finish();
+            } else {
+                crc32.update(b, off, cnt);
+            }
+            return cnt;
+        }
+
+        public long skip(final long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            // the skipped bytes must still be checksummed
+            final byte[] b = new byte[(int) min(n, 8192)];
+            long rem = n;
+            while (rem > 0) {
+                final int cnt = read(b, 0, (int) min(rem, b.length));
+                if (cnt == -1) {
+                    break;
+                }
+                rem -= cnt;
+            }
+            return n - rem;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void mark(final int readLimit) {
+        }
+
+        public void reset() throws IOException {
+            throw new IOException("Mark not supported");
+        }
+
+        private void finish() throws IOException {
+            if (! eof) {
+                eof = true;
+                checkCrc(entryHandle, crc32);
+            }
+        }
+    }
+
     /**
      * Only loaded if CP-437 zip entries exist, which is unlikely but allowed.
      */
@@ -606,6 +2244,45 @@ public final class Archive implements Closeable {
             }
         }
 
+        static int codePointAt(final byte[] bytes, final int i, final int end) {
+            final int a = bytes[i] & 0xff;
+            if (a <= 0b0111_1111) {
+                return a;
+            } else if (a <= 0b1011_1111) {
+                // invalid garbage (1 byte)
+                return '�';
+            }
+            int b = i + 1 < end ? bytes[i + 1] & 0xff : 0;
+            if ((b & 0b11_000000) != 0b10_000000) {
+                // second byte is invalid or missing; return � instead
+                return '�';
+            }
+            if (a <= 0b1101_1111) {
+                // two bytes
+                return (a & 0b000_11111) << 6 | b & 0b00_111111;
+            }
+            int c = i + 2 < end ? bytes[i + 2] & 0xff : 0;
+            if ((c & 0b11_000000) != 0b10_000000) {
+                // third byte is invalid or missing; return � instead
+                return '�';
+            }
+            if (a <= 0b1110_1111) {
+                // three bytes
+                return (a & 0b0000_1111) << 12 | (b & 0b00_111111) << 6 | c & 0b00_111111;
+            }
+            int d = i + 3 < end ? bytes[i + 3] & 0xff : 0;
+            if ((d & 0b11_000000) != 0b10_000000) {
+                // fourth byte is invalid or missing; return � instead
+                return '�';
+            }
+            if (a <= 0b1111_0111) {
+                // four bytes
+                return (a & 0b00000_111) << 18 | (b & 0b00_111111) << 12 | (c & 0b00_111111) << 6 | d & 0b00_111111;
+            }
+            // invalid garbage (1 byte)
+            return '�';
+        }
+
         static int codePointAt(final ByteBuffer[] bufs, final long i) {
             final int a = getUnsignedByte(bufs, i);
             if (a <= 0b0111_1111) {
@@ -704,13 +2381,25 @@ public final class Archive implements Closeable {
             ByteBuffer buf = bufs[bi].duplicate();
             buf.position(bo);
             final int cnt = min(len, buf.remaining());
-            buf.get(dest, 0, cnt);
+            buf.get(dest, off, cnt);
             len -= cnt;
             off += cnt;
             idx += cnt;
         }
     }
 
+    static void updateCrc(CRC32 crc32, ByteBuffer[] bufs, long idx, long len) {
+        while (len > 0) {
+            final ByteBuffer buf = bufs[bufIdx(idx)].duplicate();
+            buf.position(bufOffs(idx));
+            final int cnt = (int) min(len, buf.remaining());
+            buf.limit(buf.position() + cnt);
+            crc32.update(buf);
+            len -= cnt;
+            idx += cnt;
+        }
+    }
+
     static byte[] getBytes(ByteBuffer[] bufs, long idx, int len) {
         final byte[] bytes = new byte[len];
         readBytes(bufs, idx, bytes, 0, len);
@@ -733,6 +2422,24 @@ public final class Archive implements Closeable {
         }
     }
 
+    private static final ByteBuffer[] NO_BUFS = new ByteBuffer[0];
+
+    static ByteBuffer[] slicesOf(ByteBuffer[] bufs, long idx, long len) {
+        if (len == 0) return NO_BUFS;
+        final int biStart = bufIdx(idx);
+        final ByteBuffer[] slices = new ByteBuffer[bufIdx(idx + len - 1) - biStart + 1];
+        for (int i = 0; i < slices.length; i ++) {
+            final ByteBuffer buf = bufs[biStart + i].duplicate();
+            final int start = i == 0 ? bufOffs(idx) : 0;
+            final int cnt = (int) min(len, buf.capacity() - start);
+            buf.position(start);
+            buf.limit(start + cnt);
+            slices[i] = buf.slice().asReadOnlyBuffer();
+            len -= cnt;
+        }
+        return slices;
+    }
+
     static ByteBuffer bufferOf(ByteBuffer[] bufs, long idx, int len) {
         ByteBuffer buf = sliceOf(bufs, idx, len);
         if (buf == null) {
@@ -0,0 +1,385 @@
+package org.wildfly.common.archive;
+
+import static org.wildfly.common.archive.Archive.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.wildfly.common.Assert;
+
+/**
+ * A builder which writes a zip archive to a file channel.  Entries are compressed in parallel on a fork/join pool
+ * and written out in the order in which they were added.
+ * <p>
+ * The output is laid out so that {@link Archive#open(Path)} can index it as quickly as possible: sizes and checksums
+ * are always written in the local header (there are no data descriptors), zip64 records are only written when the
+ * archive actually needs them, and the central directory starts on an 8-byte boundary.
+ */
+public final class ArchiveBuilder implements Closeable {
+    private static final int ALIGNMENT = 8;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int DOS_DIRECTORY = 0x10;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final FileChannel channel;
+    private final boolean ownChannel;
+    private final ForkJoinPool pool;
+    private final int level;
+    private final int maxInFlight;
+    private final ArrayDeque<ForkJoinTask<Entry>> pending = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final HashSet<String> names = new HashSet<>();
+    private final ByteBuffer header = ByteBuffer.allocate(LH_END).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer centralDirectory = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+    private int entries;
+    private int dosTime;
+    private int dosDate;
+    private boolean closed;
+
+    private ArchiveBuilder(final FileChannel channel, final boolean ownChannel, final ForkJoinPool pool, final int level) throws IOException {
+        this.channel = channel;
+        this.ownChannel = ownChannel;
+        this.pool = pool;
+        this.level = level;
+        maxInFlight = pool.getParallelism() * 4;
+        position = channel.position();
+        setModifiedTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Create a builder which writes a new archive file, replacing any existing file.  Entries are compressed on the
+     * common fork/join pool at the default compression level.
+     *
+     * @param path the path of the archive to write (must not be {@code null})
+     * @return the archive builder (not {@code null})
+     * @throws IOException if the file could not be opened
+     */
+    public static ArchiveBuilder create(Path path) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new ArchiveBuilder(channel, true, ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION);
+        } catch (Throwable t) {
+            channel.close();
+            throw t;
+        }
+    }
+
+    /**
+     * Create a builder which writes an archive to the given channel, starting at its current position.  Offsets
+     * within the archive are relative to the start of the channel.  The channel is not closed when the builder is
+     * closed.
+     *
+     * @param channel the channel to write to (must not be {@code null})
+     * @param pool the pool to compress entries on (must not be {@code null})
+     * @param level the compression level, from 0 to 9, or -1 for the default level
+     * @return the archive builder (not {@code null})
+     * @throws IOException if the channel position could not be read
+     */
+    public static ArchiveBuilder create(FileChannel channel, ForkJoinPool pool, int level) throws IOException {
+        Assert.checkNotNullParam("channel", channel);
+        Assert.checkNotNullParam("pool", pool);
+        Assert.checkMinimumParameter("level", -1, level);
+        Assert.checkMaximumParameter("level", 9, level);
+        return new ArchiveBuilder(channel, false, pool, level);
+    }
+
+    /**
+     * Set the modification time recorded for entries added from now on.  The default is the time that the builder
+     * was created.  The time is recorded in MS-DOS format, in UTC, to a resolution of two seconds.
+     *
+     * @param millis the modification time, in milliseconds since the epoch
+     * @return this builder
+     */
+    public ArchiveBuilder setModifiedTime(long millis) {
+        final LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        final int year = Math.max(0, Math.min(127, dateTime.getYear() - 1980));
+        dosDate = year << 9 | dateTime.getMonthValue() << 5 | dateTime.getDayOfMonth();
+        dosTime = dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+        return this;
+    }
+
+    /**
+     * Add a compressed entry.  If compressing the content would not make it smaller, it is stored instead.
+     *
+     * @param name the entry name (must not be {@code null})
+     * @param content the entry content, which must not be modified afterwards (must not be {@code null})
+     * @return this builder
+     * @throws IOException if previously added entries could not be written
+     */
+    public ArchiveBuilder addEntry(String name, byte[] content) throws IOException {
+        return addEntry(name, content, true);
+    }
+
+    /**
+     * Add an entry.  If compressing the content would not make it smaller, it is stored instead.
+     *
+     * @param name the entry name (must not be {@code null})
+     * @param content the entry content, which must not be modified afterwards (must not be {@code null})
+     * @param compress {@code true} to compress the entry, {@code false} to store it
+     * @return this builder
+     * @throws IOException if previously added entries could not be written
+     */
+    public ArchiveBuilder addEntry(String name, byte[] content, boolean compress) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        Assert.checkNotNullParam("content", content);
+        final byte[] nameBytes = checkName(name);
+        final int dosTime = this.dosTime;
+        final int dosDate = this.dosDate;
+        pending.add(pool.submit(() -> prepare(nameBytes, content, compress, dosTime, dosDate)));
+        drain(maxInFlight);
+        return this;
+    }
+
+    /**
+     * Add a directory entry.
+     *
+     * @param name the directory name, with or without a trailing {@code /} (must not be {@code null})
+     * @return this builder
+     * @throws IOException if previously added entries could not be written
+     */
+    public ArchiveBuilder addDirectory(String name) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        final byte[] nameBytes = checkName(name.endsWith("/") ? name : name + "/");
+        final Entry entry = new Entry(nameBytes, METHOD_STORED, 0, 0, NO_BYTES, 0, dosTime, dosDate, true);
+        final ForkJoinTask<Entry> task = ForkJoinTask.adapt(() -> entry);
+        // nothing to compress, so complete it right away
+        task.invoke();
+        pending.add(task);
+        drain(maxInFlight);
+        return this;
+    }
+
+    /**
+     * Finish the archive by writing out all remaining entries and the central directory.
+     *
+     * @throws IOException if the archive could not be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            drain(0);
+            writeCentralDirectory();
+        } finally {
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+            if (ownChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    private byte[] checkName(final String name) {
+        if (closed) {
+            throw new IllegalStateException("Archive builder is closed");
+        }
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xffff) {
+            throw new IllegalArgumentException("Entry name is too long");
+        }
+        if (! names.add(name)) {
+            throw new IllegalArgumentException("Duplicate entry " + name);
+        }
+        return nameBytes;
+    }
+
+    private Entry prepare(final byte[] name, final byte[] content, final boolean compress, final int dosTime, final int dosDate) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        final int crc = (int) crc32.getValue();
+        if (compress && content.length > 0) {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(level, true);
+            }
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                // anything which does not fit is not worth compressing
+                final byte[] out = new byte[content.length];
+                int len = 0;
+                while (! deflater.finished() && len < out.length) {
+                    len += deflater.deflate(out, len, out.length - len);
+                }
+                if (deflater.finished() && len < content.length) {
+                    return new Entry(name, METHOD_DEFLATE, crc, content.length, out, len, dosTime, dosDate, false);
+                }
+            } finally {
+                deflater.reset();
+                deflaters.add(deflater);
+            }
+        }
+        return new Entry(name, METHOD_STORED, crc, content.length, content, content.length, dosTime, dosDate, false);
+    }
+
+    private void drain(final int limit) throws IOException {
+        ForkJoinTask<Entry> task;
+        while ((task = pending.peek()) != null && (task.isDone() || pending.size() > limit)) {
+            pending.poll();
+            write(task.join());
+        }
+    }
+
+    private void write(final Entry entry) throws IOException {
+        final long localHeader = position;
+        final ByteBuffer header = this.header;
+        header.clear();
+        header.putInt(SIG_LH);
+        header.putShort((short) VERSION_DEFAULT);
+        header.putShort((short) entry.gpBits());
+        header.putShort((short) entry.method);
+        header.putShort((short) entry.dosTime);
+        header.putShort((short) entry.dosDate);
+        header.putInt(entry.crc);
+        header.putInt(entry.dataLength);
+        header.putInt(entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0);
+        header.flip();
+        writeFully(header, ByteBuffer.wrap(entry.name), ByteBuffer.wrap(entry.data, 0, entry.dataLength));
+
+        final boolean zip64 = localHeader >= 0xffff_ffffL;
+        final int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+        final ByteBuffer cd = reserveCentralDirectory(CDE_END + entry.name.length + (zip64 ? 12 : 0));
+        cd.putInt(SIG_CDE);
+        cd.putShort((short) (MADE_BY_MS_DOS << 8 | version));
+        cd.putShort((short) version);
+        cd.putShort((short) entry.gpBits());
+        cd.putShort((short) entry.method);
+        cd.putShort((short) entry.dosTime);
+        cd.putShort((short) entry.dosDate);
+        cd.putInt(entry.crc);
+        cd.putInt(entry.dataLength);
+        cd.putInt(entry.size);
+        cd.putShort((short) entry.name.length);
+        cd.putShort((short) (zip64 ? 12 : 0));
+        cd.putShort((short) 0);
+        cd.putShort((short) 0);
+        cd.putShort((short) 0);
+        cd.putInt(entry.directory ? DOS_DIRECTORY : 0);
+        cd.putInt(zip64 ? -1 : (int) localHeader);
+        cd.put(entry.name);
+        if (zip64) {
+            cd.putShort((short) EXT_ID_ZIP64);
+            cd.putShort((short) 8);
+            cd.putLong(localHeader);
+        }
+        entries ++;
+    }
+
+    private ByteBuffer reserveCentralDirectory(final int size) {
+        ByteBuffer cd = centralDirectory;
+        if (cd.remaining() < size) {
+            final ByteBuffer newCd = ByteBuffer.allocate(Math.max(cd.capacity() << 1, cd.position() + size)).order(ByteOrder.LITTLE_ENDIAN);
+            cd.flip();
+            newCd.put(cd);
+            centralDirectory = cd = newCd;
+        }
+        return cd;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final ByteBuffer cd = centralDirectory;
+        cd.flip();
+        final int padding = (int) -position & ALIGNMENT - 1;
+        final long cdStart = position + padding;
+        final long cdSize = cd.remaining();
+        final boolean zip64 = entries >= 0xffff || cdStart >= 0xffff_ffffL || cdSize >= 0xffff_ffffL;
+        final ByteBuffer trailer = ByteBuffer.allocate(EOCD_ZIP64_END + EOCDL_ZIP64_END + EOCD_END).order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            trailer.putInt(SIG_EOCD_ZIP64);
+            // the record size excludes the signature and the size itself
+            trailer.putLong(EOCD_ZIP64_END - EOCD_ZIP64_VERSION_MADE_BY);
+            trailer.putShort((short) (MADE_BY_MS_DOS << 8 | VERSION_ZIP64));
+            trailer.putShort((short) VERSION_ZIP64);
+            trailer.putInt(0);
+            trailer.putInt(0);
+            trailer.putLong(entries);
+            trailer.putLong(entries);
+            trailer.putLong(cdSize);
+            trailer.putLong(cdStart);
+            trailer.putInt(SIG_EOCDL_ZIP64);
+            trailer.putInt(0);
+            trailer.putLong(cdStart + cdSize);
+            trailer.putInt(1);
+        }
+        trailer.putInt(SIG_EOCD);
+        trailer.putShort((short) 0);
+        trailer.putShort((short) 0);
+        trailer.putShort((short) Math.min(entries, 0xffff));
+        trailer.putShort((short) Math.min(entries, 0xffff));
+        trailer.putInt((int) Math.min(cdSize, 0xffff_ffffL));
+        trailer.putInt((int) Math.min(cdStart, 0xffff_ffffL));
+        trailer.putShort((short) 0);
+        trailer.flip();
+        writeFully(ByteBuffer.allocate(padding), cd, trailer);
+    }
+
+    private void writeFully(final ByteBuffer... bufs) throws IOException {
+        long rem = 0;
+        for (ByteBuffer buf : bufs) {
+            rem += buf.remaining();
+        }
+        while (rem > 0) {
+            final long cnt = channel.write(bufs);
+            position += cnt;
+            rem -= cnt;
+        }
+    }
+
+    static final class Entry {
+        final byte[] name;
+        final int method;
+        final int crc;
+        final int size;
+        final byte[] data;
+        final int dataLength;
+        final int dosTime;
+        final int dosDate;
+        final boolean directory;
+
+        Entry(final byte[] name, final int method, final int crc, final int size, final byte[] data, final int dataLength, final int dosTime, final int dosDate, final boolean directory) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.dataLength = dataLength;
+            this.dosTime = dosTime;
+            this.dosDate = dosDate;
+            this.directory = directory;
+        }
+
+        int gpBits() {
+            for (byte b : name) {
+                if (b < 0) {
+                    return GP_UTF_8;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.wildfly.common.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import org.wildfly.common.Assert;
+
+/**
+ * A registry of open archives which shares a single {@link Archive}, with its index and mappings, between every
+ * opening of archives with identical content, such as copies of one library in many deployments.  Archives are
+ * identified by their size and a digest of everything from the start of the central directory to the end of the
+ * file; since the central directory records the name, size, checksum, and position of every entry, this identifies
+ * the content without reading any of the entry data.
+ * <p>
+ * Each archive returned by {@link #open(Path, Archive.Flag...) open} carries a reference which the caller releases by
+ * closing it; openings which share an archive are given distinct handles to it, so that closing one more than once
+ * does not release the reference of another.  The shared archive is released, and removed from the registry, when the last reference to it is
+ * released.  Only the end of each archive file is read to identify it; the first file found with a given content is
+ * mapped and used for all of its copies.
+ */
+public final class ArchiveRegistry {
+    private final HashMap<Key, Archive> map = new HashMap<>();
+
+    /**
+     * Construct a new instance.
+     */
+    public ArchiveRegistry() {
+    }
+
+    /**
+     * Open an archive, sharing an archive with identical content which is already open in this registry if there is
+     * one.  Archives are only shared between openings with the same flags.
+     *
+     * @param path the archive path (must not be {@code null})
+     * @param flags optional flags to apply which affect the opening of the archive
+     * @return the opened archive (not {@code null})
+     * @throws IOException if the archive could not be opened
+     */
+    public Archive open(Path path, Archive.Flag... flags) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        final EnumSet<Archive.Flag> flagSet = EnumSet.noneOf(Archive.Flag.class);
+        if (flags != null) {
+            flagSet.addAll(Arrays.asList(flags));
+        }
+        final ByteBuffer tail;
+        final long size;
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = fc.size();
+            tail = Archive.readTail(fc, size);
+        }
+        final Key key = new Key(size, digestOf(tail), flagSet);
+        synchronized (map) {
+            final Archive existing = map.get(key);
+            final Archive acquired = existing == null ? null : existing.acquire();
+            if (acquired != null) {
+                return acquired;
+            }
+        }
+        final Archive archive = Archive.open(new ByteBuffer[] { tail }, tail.capacity() - size, size, null, flagSet, path, true);
+        boolean ok = false;
+        try {
+            // map the file now, while it is certainly present
+            archive.getData();
+            ok = true;
+        } finally {
+            if (! ok) {
+                archive.close();
+            }
+        }
+        final Archive acquired;
+        synchronized (map) {
+            final Archive existing = map.get(key);
+            acquired = existing == null ? null : existing.acquire();
+            if (acquired == null) {
+                archive.setReleaseAction(() -> {
+                    synchronized (map) {
+                        map.remove(key, archive);
+                    }
+                });
+                map.put(key, archive);
+                return archive;
+            }
+        }
+        // another thread opened the same content first
+        archive.close();
+        return acquired;
+    }
+
+    /**
+     * Get the number of distinct archives which are open in this registry.
+     *
+     * @return the number of archives
+     */
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    private static byte[] digestOf(ByteBuffer tail) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(tail.duplicate());
+        return digest.digest();
+    }
+
+    private static final class Key {
+        private final long size;
+        private final byte[] digest;
+        private final EnumSet<Archive.Flag> flags;
+        private final int hashCode;
+
+        Key(final long size, final byte[] digest, final EnumSet<Archive.Flag> flags) {
+            this.size = size;
+            this.digest = digest;
+            this.flags = flags;
+            hashCode = (Long.hashCode(size) * 19 + Arrays.hashCode(digest)) * 19 + flags.hashCode();
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        private boolean equals(final Key other) {
+            return this == other || other != null && size == other.size && Arrays.equals(digest, other.digest) && flags.equals(other.flags);
+        }
+    }
+}
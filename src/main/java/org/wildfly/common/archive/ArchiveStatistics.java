@@ -0,0 +1,329 @@
+package org.wildfly.common.archive;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A snapshot of the statistics of an archive which was opened with {@link Archive.Flag#STATISTICS}.  Besides the
+ * counters recorded as the archive is used, the snapshot describes the shape of the entry name index, which shows
+ * whether hash collisions are making lookups slow.
+ */
+public final class ArchiveStatistics {
+    private final long openNanos;
+    private final int entryCount;
+    private final int indexTableSize;
+    private final int indexTableBytes;
+    private final int indexLongestCluster;
+    private final int indexMaxProbeLength;
+    private final double indexMeanProbeLength;
+    private final long lookupCount;
+    private final long lookupMissCount;
+    private final long lookupProbeCount;
+    private final long lookupMaxProbeLength;
+    private final long inflaterPoolHitCount;
+    private final long inflaterPoolMissCount;
+    private final long inflateCount;
+    private final long inflatedBytes;
+    private final long inflateNanos;
+    private final List<EntryStatistics> hotEntries;
+
+    ArchiveStatistics(final long openNanos, final int entryCount, final int indexTableSize, final int indexTableBytes, final int indexLongestCluster, final int indexMaxProbeLength, final double indexMeanProbeLength, final long lookupCount, final long lookupMissCount, final long lookupProbeCount, final long lookupMaxProbeLength, final long inflaterPoolHitCount, final long inflaterPoolMissCount, final long inflateCount, final long inflatedBytes, final long inflateNanos, final List<EntryStatistics> hotEntries) {
+        this.openNanos = openNanos;
+        this.entryCount = entryCount;
+        this.indexTableSize = indexTableSize;
+        this.indexTableBytes = indexTableBytes;
+        this.indexLongestCluster = indexLongestCluster;
+        this.indexMaxProbeLength = indexMaxProbeLength;
+        this.indexMeanProbeLength = indexMeanProbeLength;
+        this.lookupCount = lookupCount;
+        this.lookupMissCount = lookupMissCount;
+        this.lookupProbeCount = lookupProbeCount;
+        this.lookupMaxProbeLength = lookupMaxProbeLength;
+        this.inflaterPoolHitCount = inflaterPoolHitCount;
+        this.inflaterPoolMissCount = inflaterPoolMissCount;
+        this.inflateCount = inflateCount;
+        this.inflatedBytes = inflatedBytes;
+        this.inflateNanos = inflateNanos;
+        this.hotEntries = hotEntries;
+    }
+
+    /**
+     * Get the time taken to open the archive, including building or loading its index.
+     *
+     * @return the open time in nanoseconds
+     */
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    /**
+     * Get the number of entries in the archive.
+     *
+     * @return the number of entries
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the number of slots in the entry name index.
+     *
+     * @return the number of slots
+     */
+    public int getIndexTableSize() {
+        return indexTableSize;
+    }
+
+    /**
+     * Get the memory size of the entry name index table.
+     *
+     * @return the size in bytes
+     */
+    public int getIndexTableBytes() {
+        return indexTableBytes;
+    }
+
+    /**
+     * Get the fraction of the slots of the entry name index which are occupied.
+     *
+     * @return the load factor
+     */
+    public double getIndexLoadFactor() {
+        return indexTableSize == 0 ? 0 : (double) entryCount / indexTableSize;
+    }
+
+    /**
+     * Get the length of the longest run of occupied slots in the entry name index.  A lookup for an absent name
+     * which hashes into such a run probes every slot to the end of it.  For a perfect hash index, which never probes
+     * more than one slot, this is 1.
+     *
+     * @return the longest cluster length
+     */
+    public int getIndexLongestCluster() {
+        return indexLongestCluster;
+    }
+
+    /**
+     * Get the largest number of slots probed to find any entry which is present.
+     *
+     * @return the maximum probe length
+     */
+    public int getIndexMaxProbeLength() {
+        return indexMaxProbeLength;
+    }
+
+    /**
+     * Get the average number of slots probed to find an entry which is present.  A perfect index would give
+     * exactly 1.
+     *
+     * @return the mean probe length
+     */
+    public double getIndexMeanProbeLength() {
+        return indexMeanProbeLength;
+    }
+
+    /**
+     * Get the number of lookups by name.
+     *
+     * @return the lookup count
+     */
+    public long getLookupCount() {
+        return lookupCount;
+    }
+
+    /**
+     * Get the number of lookups by name which found no entry.
+     *
+     * @return the lookup miss count
+     */
+    public long getLookupMissCount() {
+        return lookupMissCount;
+    }
+
+    /**
+     * Get the total number of index slots probed by lookups.
+     *
+     * @return the probe count
+     */
+    public long getLookupProbeCount() {
+        return lookupProbeCount;
+    }
+
+    /**
+     * Get the largest number of index slots probed by a single lookup.
+     *
+     * @return the maximum probe length
+     */
+    public long getLookupMaxProbeLength() {
+        return lookupMaxProbeLength;
+    }
+
+    /**
+     * Get the number of times that an inflater was reused from the inflater pool.
+     *
+     * @return the pool hit count
+     */
+    public long getInflaterPoolHitCount() {
+        return inflaterPoolHitCount;
+    }
+
+    /**
+     * Get the number of times that a new inflater had to be created.
+     *
+     * @return the pool miss count
+     */
+    public long getInflaterPoolMissCount() {
+        return inflaterPoolMissCount;
+    }
+
+    /**
+     * Get the number of times that an entry was inflated.
+     *
+     * @return the inflate count
+     */
+    public long getInflateCount() {
+        return inflateCount;
+    }
+
+    /**
+     * Get the total number of bytes produced by inflating entries.
+     *
+     * @return the number of bytes
+     */
+    public long getInflatedBytes() {
+        return inflatedBytes;
+    }
+
+    /**
+     * Get the total time spent inflating entries.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getInflateNanos() {
+        return inflateNanos;
+    }
+
+    /**
+     * Get the entries which took the longest in total to inflate, slowest first.
+     *
+     * @return the immutable list of entry statistics (not {@code null})
+     */
+    public List<EntryStatistics> getHotEntries() {
+        return hotEntries;
+    }
+
+    public String toString() {
+        return String.format("ArchiveStatistics[open=%dns, entries=%d, index=%d slots (%d bytes, load %.2f, longest cluster %d, probes mean %.2f max %d), lookups=%d (misses=%d, probes=%d, max probes=%d), inflates=%d (%d bytes, %dns)]",
+            Long.valueOf(openNanos), Integer.valueOf(entryCount), Integer.valueOf(indexTableSize), Integer.valueOf(indexTableBytes), Double.valueOf(getIndexLoadFactor()), Integer.valueOf(indexLongestCluster), Double.valueOf(indexMeanProbeLength), Integer.valueOf(indexMaxProbeLength),
+            Long.valueOf(lookupCount), Long.valueOf(lookupMissCount), Long.valueOf(lookupProbeCount), Long.valueOf(lookupMaxProbeLength),
+            Long.valueOf(inflateCount), Long.valueOf(inflatedBytes), Long.valueOf(inflateNanos));
+    }
+
+    /**
+     * The inflation statistics of a single entry.
+     */
+    public static final class EntryStatistics {
+        private final String name;
+        private final long inflateCount;
+        private final long inflatedBytes;
+        private final long inflateNanos;
+
+        EntryStatistics(final String name, final long inflateCount, final long inflatedBytes, final long inflateNanos) {
+            this.name = name;
+            this.inflateCount = inflateCount;
+            this.inflatedBytes = inflatedBytes;
+            this.inflateNanos = inflateNanos;
+        }
+
+        /**
+         * Get the entry name.
+         *
+         * @return the entry name (not {@code null})
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the number of times that the entry was inflated.
+         *
+         * @return the inflate count
+         */
+        public long getInflateCount() {
+            return inflateCount;
+        }
+
+        /**
+         * Get the total number of bytes produced by inflating the entry.
+         *
+         * @return the number of bytes
+         */
+        public long getInflatedBytes() {
+            return inflatedBytes;
+        }
+
+        /**
+         * Get the total time spent inflating the entry.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getInflateNanos() {
+            return inflateNanos;
+        }
+
+        public String toString() {
+            return String.format("%s: %d inflates, %d bytes, %dns", name, Long.valueOf(inflateCount), Long.valueOf(inflatedBytes), Long.valueOf(inflateNanos));
+        }
+    }
+
+    /**
+     * The live counters of an archive.  All updates are lock-free; the global counters are striped.
+     */
+    static final class Recorder {
+        private static final int COUNT = 0;
+        private static final int BYTES = 1;
+        private static final int NANOS = 2;
+
+        final LongAdder lookups = new LongAdder();
+        final LongAdder lookupMisses = new LongAdder();
+        final LongAdder lookupProbes = new LongAdder();
+        final LongAccumulator lookupMaxProbes = new LongAccumulator(Math::max, 0);
+        final LongAdder inflates = new LongAdder();
+        final LongAdder inflatedBytes = new LongAdder();
+        final LongAdder inflateNanos = new LongAdder();
+        /**
+         * Per-entry inflate count, bytes, and time, by entry ordinal.
+         */
+        final AtomicLongArray entries;
+        volatile long openNanos;
+
+        Recorder(final int maxOrdinal) {
+            entries = new AtomicLongArray(maxOrdinal * 3);
+        }
+
+        void recordLookup(int probes, boolean found) {
+            lookups.increment();
+            lookupProbes.add(probes);
+            lookupMaxProbes.accumulate(probes);
+            if (! found) {
+                lookupMisses.increment();
+            }
+        }
+
+        void recordInflate(int ordinal, long bytes, long nanos) {
+            inflates.increment();
+            inflatedBytes.add(bytes);
+            inflateNanos.add(nanos);
+            entries.incrementAndGet(ordinal * 3 + COUNT);
+            entries.addAndGet(ordinal * 3 + BYTES, bytes);
+            entries.addAndGet(ordinal * 3 + NANOS, nanos);
+        }
+
+        EntryStatistics getEntryStatistics(int ordinal, String name) {
+            final long count = entries.get(ordinal * 3 + COUNT);
+            return count == 0 ? null : new EntryStatistics(name, count, entries.get(ordinal * 3 + BYTES), entries.get(ordinal * 3 + NANOS));
+        }
+    }
+}
@@ -17,7 +17,7 @@ final class ByteBufferInputStream extends InputStream {
     }
 
     public int read() {
-        return pos < size ? Archive.getByte(bufs, offset + pos++) : -1;
+        return pos < size ? Archive.getByte(bufs, offset + pos++) & 0xff : -1;
     }
 
     public int read(final byte[] b) {
@@ -30,6 +30,7 @@ final class ByteBufferInputStream extends InputStream {
         final int realLen = (int) Math.min(len, rem);
         if (realLen > 0) {
             Archive.readBytes(bufs, offset + pos, b, off, realLen);
+            pos += realLen;
             return realLen;
         } else {
             return 0;
@@ -0,0 +1,107 @@
+package org.wildfly.common.archive;
+
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A size-limited cache of prefetched entry contents, keyed by entry handle.  Each cached buffer is handed out once
+ * and then removed, since callers such as class loaders read any given entry once; this also returns its space to
+ * the budget so that prefetching can stay ahead of consumption.  Once the cache is cleared it accepts no more
+ * entries, so that prefetches which are still running when the archive is closed leave nothing behind.
+ */
+final class ContentCache {
+    private static final long MAX_BYTES = AccessController.doPrivileged((PrivilegedAction<Long>) () -> {
+        try {
+            return Long.valueOf(System.getProperty("jboss.archive.prefetch-cache.size", "67108864"));
+        } catch (NumberFormatException ignored) {
+            return Long.valueOf(67108864);
+        }
+    }).longValue();
+
+    private final ConcurrentHashMap<Long, ByteBuffer> map = new ConcurrentHashMap<>();
+    // both guarded by this
+    private long size;
+    private boolean closed;
+
+    ContentCache() {
+    }
+
+    /**
+     * Determine whether the given entry is cached.
+     *
+     * @param entryHandle the entry handle
+     * @return {@code true} if the entry is cached
+     */
+    boolean contains(long entryHandle) {
+        return ! map.isEmpty() && map.containsKey(Long.valueOf(entryHandle));
+    }
+
+    /**
+     * Remove and return the cached contents of an entry.
+     *
+     * @param entryHandle the entry handle
+     * @return the entry contents, or {@code null} if they are not cached
+     */
+    ByteBuffer take(long entryHandle) {
+        if (map.isEmpty()) {
+            return null;
+        }
+        final ByteBuffer buf = map.remove(Long.valueOf(entryHandle));
+        if (buf != null) {
+            synchronized (this) {
+                if (! closed) {
+                    size -= buf.capacity();
+                }
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Reserve space for an entry of the given size.
+     *
+     * @param bytes the entry size
+     * @return {@code true} if the space was reserved, or {@code false} if the cache is full or cleared
+     */
+    synchronized boolean reserve(long bytes) {
+        if (closed || size + bytes > MAX_BYTES) {
+            return false;
+        }
+        size += bytes;
+        return true;
+    }
+
+    /**
+     * Release space which was reserved but not used.
+     *
+     * @param bytes the number of bytes to release
+     */
+    synchronized void unreserve(long bytes) {
+        if (! closed) {
+            size -= bytes;
+        }
+    }
+
+    /**
+     * Add the contents of an entry, for which space has already been reserved.
+     *
+     * @param entryHandle the entry handle
+     * @param contents the entry contents
+     */
+    synchronized void put(long entryHandle, ByteBuffer contents) {
+        if (! closed && map.putIfAbsent(Long.valueOf(entryHandle), contents) != null) {
+            size -= contents.capacity();
+        }
+    }
+
+    /**
+     * Discard all cached contents, and refuse any further reservations.
+     */
+    synchronized void clear() {
+        closed = true;
+        map.clear();
+        size = 0;
+    }
+}
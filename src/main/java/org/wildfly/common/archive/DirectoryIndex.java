@@ -0,0 +1,104 @@
+package org.wildfly.common.archive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A secondary index of an archive which maps each directory to its immediate children.  Directories which are
+ * implied by entry names but have no entry of their own are synthesized.  Directory names always end with
+ * {@code /}, except for the root directory whose name is empty.
+ */
+final class DirectoryIndex {
+    private static final long[] NO_HANDLES = new long[0];
+
+    private final HashMap<String, Directory> directories;
+
+    private DirectoryIndex(final HashMap<String, Directory> directories) {
+        this.directories = directories;
+    }
+
+    static DirectoryIndex build(Archive archive) {
+        final HashMap<String, Directory> directories = new HashMap<>();
+        directories.put("", new Directory());
+        for (long handle = archive.getFirstEntryHandle(); handle != -1; handle = archive.getNextEntryHandle(handle)) {
+            final String name = archive.getEntryName(handle);
+            final boolean isDir = name.endsWith("/");
+            final String parent = parentOf(name);
+            getOrAdd(directories, parent).addEntry(handle);
+            if (isDir) {
+                getOrAdd(directories, name);
+            }
+        }
+        for (Directory directory : directories.values()) {
+            directory.trim();
+        }
+        return new DirectoryIndex(directories);
+    }
+
+    private static Directory getOrAdd(final HashMap<String, Directory> directories, final String name) {
+        Directory directory = directories.get(name);
+        if (directory == null) {
+            directory = new Directory();
+            directories.put(name, directory);
+            // link it (and any missing ancestors) into the parent
+            getOrAdd(directories, parentOf(name)).addSubdirectory(name);
+        }
+        return directory;
+    }
+
+    static String parentOf(String name) {
+        final int idx = name.lastIndexOf('/', name.length() - 2);
+        return idx == -1 ? "" : name.substring(0, idx + 1);
+    }
+
+    static String normalize(String dirName) {
+        if (dirName.isEmpty() || dirName.equals("/")) {
+            return "";
+        }
+        return dirName.endsWith("/") ? dirName : dirName + "/";
+    }
+
+    boolean contains(String dirName) {
+        return directories.containsKey(dirName);
+    }
+
+    long[] getEntryHandles(String dirName) {
+        final Directory directory = directories.get(dirName);
+        return directory == null ? NO_HANDLES : directory.handles.clone();
+    }
+
+    List<String> getSubdirectoryNames(String dirName) {
+        final Directory directory = directories.get(dirName);
+        return directory == null ? Collections.emptyList() : directory.subdirectories;
+    }
+
+    static final class Directory {
+        long[] handles = NO_HANDLES;
+        int handleCount;
+        List<String> subdirectories = new ArrayList<>(0);
+
+        Directory() {
+        }
+
+        void addEntry(long handle) {
+            if (handleCount == handles.length) {
+                handles = Arrays.copyOf(handles, Math.max(4, handleCount << 1));
+            }
+            handles[handleCount++] = handle;
+        }
+
+        void addSubdirectory(String name) {
+            subdirectories.add(name);
+        }
+
+        void trim() {
+            if (handleCount < handles.length) {
+                handles = Arrays.copyOf(handles, handleCount);
+            }
+            subdirectories = subdirectories.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(subdirectories);
+        }
+    }
+}
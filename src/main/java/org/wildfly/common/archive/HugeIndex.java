@@ -1,11 +1,12 @@
 package org.wildfly.common.archive;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * An index for archives greater than 4GB in size.
  */
-final class HugeIndex extends Index {
+final class HugeIndex extends ProbingIndex {
     private final long[] table;
 
     HugeIndex(final int entries) {
@@ -28,4 +29,18 @@ final class HugeIndex extends Index {
         }
         table[index] = offset;
     }
+
+    int getTableBytes() {
+        return table.length * 8;
+    }
+
+    void writeTo(final ByteBuffer buf) {
+        buf.asLongBuffer().put(table);
+        buf.position(buf.position() + getTableBytes());
+    }
+
+    void readFrom(final ByteBuffer buf) {
+        buf.asLongBuffer().get(table);
+        buf.position(buf.position() + getTableBytes());
+    }
 }
@@ -1,5 +1,7 @@
 package org.wildfly.common.archive;
 
+import java.nio.ByteBuffer;
+
 /**
  */
 abstract class Index {
@@ -12,15 +14,81 @@ abstract class Index {
         this.tableSize = Integer.highestOneBit(entries << 2);
     }
 
+    Index(final int entries, final int tableSize) {
+        if (entries >= 1 << 30) {
+            throw new IllegalStateException("Index is too large");
+        }
+        this.tableSize = tableSize;
+    }
+
     final int size() {
         return tableSize;
     }
 
     abstract long get(int index);
 
-    abstract void put(int index, long offset);
+    /**
+     * Get the number of bytes needed to store the table of this index.
+     *
+     * @return the number of bytes
+     */
+    abstract int getTableBytes();
+
+    /**
+     * Write the index table to the given buffer, advancing its position.
+     *
+     * @param buf the target buffer
+     */
+    abstract void writeTo(ByteBuffer buf);
+
+    /**
+     * Populate the index table from the given buffer, advancing its position.
+     *
+     * @param buf the source buffer
+     */
+    abstract void readFrom(ByteBuffer buf);
 
     int getMask() {
         return tableSize - 1;
     }
+
+    /**
+     * Get the number of slots which may hold an entry.
+     *
+     * @return the number of slots
+     */
+    int getSlotCount() {
+        return tableSize;
+    }
+
+    /**
+     * Get the table slot to examine on the given attempt to find an entry with the given hash code.
+     *
+     * @param hashCode the entry name hash code
+     * @param attempt the attempt number, starting at zero
+     * @return the slot index
+     */
+    int probe(int hashCode, int attempt) {
+        return hashCode + attempt & getMask();
+    }
+
+    /**
+     * Get the maximum number of slots that a lookup may need to examine.
+     *
+     * @return the maximum number of probes
+     */
+    int getMaxProbes() {
+        return getMask();
+    }
+
+    /**
+     * Get the number of slots that a lookup examines to find the entry with the given hash code in the given slot.
+     *
+     * @param hashCode the entry name hash code
+     * @param slot the slot which holds the entry
+     * @return the number of probes
+     */
+    int getProbeLength(int hashCode, int slot) {
+        return (slot - hashCode & getMask()) + 1;
+    }
 }
@@ -0,0 +1,147 @@
+package org.wildfly.common.archive;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A persistent sidecar store for archive indexes.  Each sidecar file holds the fingerprint of the archive it was
+ * built from followed by the raw index table, so that a matching sidecar can be mapped and copied into an index
+ * without walking the central directory.
+ * <p>
+ * The sidecar layout (little-endian) is:
+ * <pre>
+ *     int   magic
+ *     int   version
+ *     long  archive size
+ *     long  archive modification time (millis)
+ *     long  central directory offset
+ *     int   CRC-32 of the end-of-central-directory record
+ *     int   entry count
+ *     int   index type (0 = linear probing, 1 = perfect hash)
+ *     int   archive path length
+ *     byte* archive path (UTF-8)
+ *     byte* padding to an 8-byte boundary
+ *     byte* index table
+ * </pre>
+ * All I/O problems are treated as a cache miss; the cache is strictly best-effort.
+ */
+final class IndexCache {
+    private static final int MAGIC = 0x78644977; // "wIdx"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    private static final int TYPE_LINEAR = 0;
+    private static final int TYPE_PERFECT = 1;
+
+    private final Path cacheDir;
+    private final byte[] archivePath;
+    private final Path cacheFile;
+    private final long modifiedTime;
+
+    IndexCache(final Path cacheDir, final Path archivePath, final long modifiedTime) {
+        this.cacheDir = cacheDir;
+        final String pathString = archivePath.toAbsolutePath().normalize().toString();
+        this.archivePath = pathString.getBytes(StandardCharsets.UTF_8);
+        final Path fileName = archivePath.getFileName();
+        this.cacheFile = cacheDir.resolve((fileName == null ? "archive" : fileName.toString()) + "-" + Integer.toHexString(pathString.hashCode()) + ".idx");
+        this.modifiedTime = modifiedTime;
+    }
+
+    Index load(final long length, final long cd, final int eocdCrc, final int entries) {
+        final ByteBuffer buf;
+        try (FileChannel fc = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            // includes the case where there is no sidecar yet
+            return null;
+        }
+        if (buf.capacity() < HEADER_SIZE) {
+            return null;
+        }
+        final int type = buf.getInt(40);
+        final Index index = type == TYPE_PERFECT ? new PerfectIndex(entries, cd) : Archive.createIndex(length, entries);
+        final int tableStart = tableStart();
+        // the size of a perfect index is only known once it has been read
+        if ((type == TYPE_PERFECT ? buf.capacity() < tableStart + index.getTableBytes() : buf.capacity() != tableStart + index.getTableBytes())
+            || buf.getInt(0) != MAGIC
+            || buf.getInt(4) != VERSION
+            || buf.getLong(8) != length
+            || buf.getLong(16) != modifiedTime
+            || buf.getLong(24) != cd
+            || buf.getInt(32) != eocdCrc
+            || buf.getInt(36) != entries
+            || type != TYPE_LINEAR && type != TYPE_PERFECT
+            || buf.getInt(44) != archivePath.length) {
+            return null;
+        }
+        final byte[] storedPath = new byte[archivePath.length];
+        buf.position(HEADER_SIZE);
+        buf.get(storedPath);
+        if (! Arrays.equals(storedPath, archivePath)) {
+            return null;
+        }
+        buf.position(tableStart);
+        try {
+            index.readFrom(buf);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+        return buf.hasRemaining() ? null : index;
+    }
+
+    void store(final long length, final long cd, final int eocdCrc, final int entries, final Index index) {
+        final int tableStart = tableStart();
+        final ByteBuffer buf = ByteBuffer.allocate(tableStart + index.getTableBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(length);
+        buf.putLong(modifiedTime);
+        buf.putLong(cd);
+        buf.putInt(eocdCrc);
+        buf.putInt(entries);
+        buf.putInt(index instanceof PerfectIndex ? TYPE_PERFECT : TYPE_LINEAR);
+        buf.putInt(archivePath.length);
+        buf.put(archivePath);
+        buf.position(tableStart);
+        index.writeTo(buf);
+        buf.flip();
+        Path tmp = null;
+        try {
+            Files.createDirectories(cacheDir);
+            tmp = Files.createTempFile(cacheDir, cacheFile.getFileName().toString(), ".tmp");
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    fc.write(buf);
+                }
+            }
+            try {
+                Files.move(tmp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException ignored) {
+            // best-effort
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private int tableStart() {
+        return HEADER_SIZE + archivePath.length + 7 & -8;
+    }
+}
@@ -0,0 +1,93 @@
+package org.wildfly.common.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.wildfly.common.cpu.ProcessorInfo;
+
+/**
+ * A bounded, striped pool of raw (no-wrap) inflaters.  Each stripe holds at most one idle inflater, and threads pick
+ * their stripe by thread ID, so uncontended acquire and release are a single atomic operation each.  Inflaters which
+ * do not fit back into the pool are ended immediately.
+ */
+final class InflaterPool {
+    private static final int STRIPES = Integer.highestOneBit(ProcessorInfo.availableProcessors() * 2 - 1);
+
+    private final AtomicReferenceArray<Inflater> slots = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean closed;
+
+    InflaterPool() {
+    }
+
+    Inflater acquire() {
+        final Inflater inflater = slots.getAndSet(slotIndex(), null);
+        if (inflater != null) {
+            hits.increment();
+            return inflater;
+        }
+        misses.increment();
+        return new Inflater(true);
+    }
+
+    void release(Inflater inflater) {
+        inflater.reset();
+        final int idx = slotIndex();
+        if (closed || ! slots.compareAndSet(idx, null, inflater)) {
+            inflater.end();
+        } else if (closed && slots.compareAndSet(idx, inflater, null)) {
+            // lost a race with close()
+            inflater.end();
+        }
+    }
+
+    InputStream getInputStream(InputStream in) {
+        return new PooledInflaterInputStream(in, acquire());
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    void close() {
+        closed = true;
+        for (int i = 0; i < STRIPES; i ++) {
+            final Inflater inflater = slots.getAndSet(i, null);
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static int slotIndex() {
+        return (int) Thread.currentThread().getId() & STRIPES - 1;
+    }
+
+    final class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean released;
+
+        PooledInflaterInputStream(final InputStream in, final Inflater inflater) {
+            super(in, inflater);
+        }
+
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (! released) {
+                    released = true;
+                    release(inf);
+                }
+            }
+        }
+    }
+}
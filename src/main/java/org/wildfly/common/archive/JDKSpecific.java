@@ -4,6 +4,10 @@ import static java.lang.Math.min;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -12,7 +16,28 @@ import java.util.zip.Inflater;
 final class JDKSpecific {
     private JDKSpecific() {}
 
-    static ByteBuffer inflate(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final int compSize, final int uncompSize) throws DataFormatException, IOException {
+    private static final int RUNTIME_RELEASE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> {
+        // "1.8" on Java 8, "9", "10" and so on after that
+        String version = System.getProperty("java.specification.version", "1.8");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        int end = 0;
+        while (end < version.length() && Character.isDigit(version.charAt(end))) {
+            end ++;
+        }
+        try {
+            return Integer.valueOf(Math.max(8, Integer.parseInt(version.substring(0, end))));
+        } catch (NumberFormatException ignored) {
+            return Integer.valueOf(8);
+        }
+    }).intValue();
+
+    static int getRuntimeRelease() {
+        return RUNTIME_RELEASE;
+    }
+
+    static ByteBuffer inflate(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final int compSize, final int uncompSize, final CRC32 crc32) throws DataFormatException, IOException {
         int cnt = 0;
         byte[] b = new byte[min(16384, compSize)];
         byte[] out = new byte[uncompSize];
@@ -20,11 +45,16 @@ final class JDKSpecific {
         while (cnt < compSize) {
             int rem = compSize - cnt;
             final int acnt = min(rem, b.length);
-            Archive.readBytes(bufs, offset, b, 0, acnt);
+            Archive.readBytes(bufs, offset + cnt, b, 0, acnt);
             cnt += acnt;
             inflater.setInput(b, 0, acnt);
             do {
-                op += inflater.inflate(out, op, uncompSize - op);
+                final int n = inflater.inflate(out, op, uncompSize - op);
+                if (crc32 != null) {
+                    // checksum the output while it is still in cache
+                    crc32.update(out, op, n);
+                }
+                op += n;
             } while (! inflater.needsInput());
         }
         if (! inflater.finished()) {
@@ -32,4 +62,93 @@ final class JDKSpecific {
         }
         return ByteBuffer.wrap(out);
     }
+
+    private static final ThreadLocal<byte[][]> TRANSFER_BUFFERS = new ThreadLocal<>();
+
+    /**
+     * Take the transfer buffers of this thread for the duration of a call, so that a call made on the same thread
+     * meanwhile (for example by a target channel which reads from another archive) gets buffers of its own.
+     */
+    private static byte[][] takeTransferBuffers() {
+        final byte[][] buffers = TRANSFER_BUFFERS.get();
+        if (buffers == null) {
+            return new byte[][] { new byte[16384], new byte[16384] };
+        }
+        TRANSFER_BUFFERS.set(null);
+        return buffers;
+    }
+
+    static void inflate(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final long compSize, final ByteBuffer target, final CRC32 crc32) throws DataFormatException, IOException {
+        final byte[][] buffers = takeTransferBuffers();
+        try {
+            final byte[] b = buffers[0];
+            // inflate straight into a heap target, otherwise through the transfer buffer
+            final boolean inPlace = target.hasArray();
+            final byte[] out = inPlace ? target.array() : buffers[1];
+            long cnt = 0;
+            while (! inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (cnt == compSize) {
+                        throw new IOException("Corrupted compression stream");
+                    }
+                    final int acnt = (int) min(compSize - cnt, b.length);
+                    Archive.readBytes(bufs, offset + cnt, b, 0, acnt);
+                    cnt += acnt;
+                    inflater.setInput(b, 0, acnt);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupted compression stream");
+                }
+                final int off = inPlace ? target.arrayOffset() + target.position() : 0;
+                final int len = inPlace ? target.remaining() : min(target.remaining(), out.length);
+                final int op = inflater.inflate(out, off, len);
+                if (op == 0 && len == 0 && ! inflater.finished() && ! inflater.needsInput()) {
+                    // more output than the entry size
+                    throw new IOException("Corrupted compression stream");
+                }
+                if (crc32 != null) {
+                    crc32.update(out, off, op);
+                }
+                if (inPlace) {
+                    target.position(target.position() + op);
+                } else {
+                    target.put(out, 0, op);
+                }
+            }
+        } finally {
+            TRANSFER_BUFFERS.set(buffers);
+        }
+    }
+
+    static long inflateTo(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final long compSize, final WritableByteChannel target) throws DataFormatException, IOException {
+        final byte[][] buffers = takeTransferBuffers();
+        try {
+            final byte[] b = buffers[0];
+            final byte[] out = buffers[1];
+            final ByteBuffer outBuf = ByteBuffer.wrap(out);
+            long cnt = 0;
+            long total = 0;
+            while (! inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (cnt == compSize) {
+                        throw new IOException("Corrupted compression stream");
+                    }
+                    final int acnt = (int) min(compSize - cnt, b.length);
+                    Archive.readBytes(bufs, offset + cnt, b, 0, acnt);
+                    cnt += acnt;
+                    inflater.setInput(b, 0, acnt);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupted compression stream");
+                }
+                final int op = inflater.inflate(out);
+                outBuf.clear().limit(op);
+                while (outBuf.hasRemaining()) {
+                    target.write(outBuf);
+                }
+                total += op;
+            }
+            return total;
+        } finally {
+            TRANSFER_BUFFERS.set(buffers);
+        }
+    }
 }
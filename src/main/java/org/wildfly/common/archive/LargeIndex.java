@@ -1,11 +1,12 @@
 package org.wildfly.common.archive;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * An index for archives between 64KB and 4GB in size.
  */
-final class LargeIndex extends Index {
+final class LargeIndex extends ProbingIndex {
     private final int[] table;
 
     LargeIndex(final int entries) {
@@ -17,7 +18,7 @@ final class LargeIndex extends Index {
 
     long get(final int index) {
         final int val = table[index];
-        return val == -1 ? -1 : val & 0xffffffff;
+        return val == -1 ? -1 : val & 0xffff_ffffL;
     }
 
     void put(int index, final long offset) {
@@ -27,6 +28,20 @@ final class LargeIndex extends Index {
             index = index + 1 & getMask();
             val = table[index];
         }
-        table[index] = Math.toIntExact(offset);
+        table[index] = (int) offset;
+    }
+
+    int getTableBytes() {
+        return table.length * 4;
+    }
+
+    void writeTo(final ByteBuffer buf) {
+        buf.asIntBuffer().put(table);
+        buf.position(buf.position() + getTableBytes());
+    }
+
+    void readFrom(final ByteBuffer buf) {
+        buf.asIntBuffer().get(table);
+        buf.position(buf.position() + getTableBytes());
     }
 }
@@ -0,0 +1,96 @@
+package org.wildfly.common.archive;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the nested archives of an outer archive, keyed by entry handle.  The cache holds one
+ * reference to each nested archive it contains; every archive handed out from it is a handle carrying another
+ * reference, which the caller releases by closing the handle.  A nested archive is therefore only released once it has been evicted (or the
+ * outer archive closed) and every caller has closed it.
+ */
+final class NestedArchiveCache {
+    private static final int MAX_ENTRIES = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> {
+        try {
+            return Integer.valueOf(System.getProperty("jboss.archive.nested-cache.size", "16"));
+        } catch (NumberFormatException ignored) {
+            return Integer.valueOf(16);
+        }
+    }).intValue();
+
+    private final LinkedHashMap<Long, Archive> map = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    NestedArchiveCache() {
+    }
+
+    /**
+     * Get a cached nested archive, acquiring a reference to it for the caller.
+     *
+     * @param entryHandle the entry handle of the nested archive
+     * @return the nested archive, or {@code null} if it is not cached
+     */
+    Archive get(long entryHandle) {
+        synchronized (map) {
+            final Archive archive = map.get(Long.valueOf(entryHandle));
+            return archive == null ? null : archive.acquire();
+        }
+    }
+
+    /**
+     * Add a newly opened nested archive to the cache.  The caller's reference to the given archive is kept for the
+     * cache, and a new reference is acquired for the caller.  If another thread already cached the same nested
+     * archive, the given archive is released and a handle to the cached one is returned instead.
+     *
+     * @param entryHandle the entry handle of the nested archive
+     * @param archive the newly opened nested archive
+     * @return the archive to return to the caller, holding a reference acquired for it
+     */
+    Archive put(long entryHandle, Archive archive) {
+        final List<Archive> evicted;
+        final Archive result;
+        synchronized (map) {
+            if (closed || MAX_ENTRIES <= 0) {
+                return archive;
+            }
+            final Long key = Long.valueOf(entryHandle);
+            final Archive existing = map.get(key);
+            final Archive acquired = existing == null ? null : existing.acquire();
+            if (acquired != null) {
+                result = acquired;
+                evicted = new ArrayList<>(1);
+                evicted.add(archive);
+            } else {
+                map.put(key, archive);
+                result = archive.acquire();
+                evicted = new ArrayList<>(0);
+                final Iterator<Map.Entry<Long, Archive>> iterator = map.entrySet().iterator();
+                while (map.size() > MAX_ENTRIES) {
+                    evicted.add(iterator.next().getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        for (Archive e : evicted) {
+            e.release();
+        }
+        return result;
+    }
+
+    void close() {
+        final List<Archive> evicted;
+        synchronized (map) {
+            closed = true;
+            evicted = new ArrayList<>(map.values());
+            map.clear();
+        }
+        for (Archive e : evicted) {
+            e.release();
+        }
+    }
+}
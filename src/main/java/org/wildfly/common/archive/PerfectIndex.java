@@ -0,0 +1,233 @@
+package org.wildfly.common.archive;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A perfect hash index, built with the hash-and-displace method.  Entries are grouped into small buckets by one hash
+ * of the name hash code, and each bucket is given a displacement which sends every one of its entries to a distinct
+ * free slot under a second hash.  A lookup therefore examines exactly one slot, whether or not the entry exists.
+ * <p>
+ * The table has only slightly more slots than there are entries, and each slot holds the entry offset relative to
+ * the start of the central directory in four bytes; the displacements take two bytes for every {@value #BUCKET_SIZE}
+ * entries.  Entries whose name hash code is shared with an earlier entry cannot be placed by any displacement, so
+ * they go into a small overflow table with linear probing which follows the main table in slot numbering; lookups
+ * only reach it when the main slot holds a different name.  Building is more expensive than for the linear probing
+ * indexes, and it fails if no displacement can be found, in which case one of those should be used instead.
+ */
+final class PerfectIndex extends Index {
+    /**
+     * The average number of entries per bucket.
+     */
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_DISPLACEMENT = 0xffff;
+
+    private final long cd;
+    private final char[] displacements;
+    private final int[] table;
+    private int[] overflow = NO_OVERFLOW;
+
+    private static final int[] NO_OVERFLOW = new int[0];
+
+    PerfectIndex(final int entries, final long cd) {
+        super(entries, entries + (entries >> 6) + 1);
+        this.cd = cd;
+        displacements = new char[(entries + BUCKET_SIZE - 1) / BUCKET_SIZE + 1];
+        final int[] array = new int[size()];
+        Arrays.fill(array, -1);
+        table = array;
+    }
+
+    private static int[] createOverflow(final int entries) {
+        if (entries == 0) {
+            return NO_OVERFLOW;
+        }
+        final int[] array = new int[Integer.highestOneBit(entries << 2)];
+        Arrays.fill(array, -1);
+        return array;
+    }
+
+    /**
+     * Build a perfect index.
+     *
+     * @param length the archive length
+     * @param cd the offset of the central directory
+     * @param cdes the offsets of the central directory entries
+     * @param hashCodes the name hash codes of the central directory entries
+     * @return the index, or {@code null} if no perfect index can be built for these entries
+     */
+    static PerfectIndex build(final long length, final long cd, final long[] cdes, final int[] hashCodes) {
+        if (length - cd >= 0xffff_ffffL) {
+            return null;
+        }
+        final int entries = cdes.length;
+        final PerfectIndex index = new PerfectIndex(entries, cd);
+        // find the entries whose hash code is already taken, which no displacement can separate
+        final boolean[] duplicate = new boolean[entries];
+        int duplicates = 0;
+        final long[] sorted = new long[entries];
+        for (int i = 0; i < entries; i ++) {
+            // sort by hash code, then by directory order
+            sorted[i] = (long) hashCodes[i] << 32 | i;
+        }
+        Arrays.sort(sorted);
+        for (int i = 1; i < entries; i ++) {
+            if ((int) (sorted[i] >> 32) == (int) (sorted[i - 1] >> 32)) {
+                duplicate[(int) sorted[i]] = true;
+                duplicates ++;
+            }
+        }
+        if (duplicates > 0) {
+            final int[] overflow = index.overflow = createOverflow(duplicates);
+            final int mask = overflow.length - 1;
+            for (int i = 0; i < entries; i ++) {
+                if (duplicate[i]) {
+                    int slot = hashCodes[i] & mask;
+                    while (overflow[slot] != -1) {
+                        slot = slot + 1 & mask;
+                    }
+                    overflow[slot] = (int) (cdes[i] - cd);
+                }
+            }
+        }
+        final int bucketCount = index.displacements.length;
+        // group the entries by bucket (counting sort)
+        final int[] bucketStart = new int[bucketCount + 1];
+        for (int i = 0; i < entries; i ++) {
+            if (! duplicate[i]) {
+                bucketStart[index.bucketOf(hashCodes[i]) + 1] ++;
+            }
+        }
+        int maxBucketSize = 0;
+        for (int i = 0; i < bucketCount; i ++) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStart[i + 1]);
+            bucketStart[i + 1] += bucketStart[i];
+        }
+        final int[] members = new int[entries - duplicates];
+        final int[] cursor = Arrays.copyOf(bucketStart, bucketCount);
+        for (int i = 0; i < entries; i ++) {
+            if (! duplicate[i]) {
+                members[cursor[index.bucketOf(hashCodes[i])] ++] = i;
+            }
+        }
+        // place the largest buckets first, while there is the most room
+        final int[] sizeStart = new int[maxBucketSize + 2];
+        for (int b = 0; b < bucketCount; b ++) {
+            sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b]) + 1] ++;
+        }
+        for (int i = 0; i <= maxBucketSize; i ++) {
+            sizeStart[i + 1] += sizeStart[i];
+        }
+        final int[] bucketOrder = new int[bucketCount];
+        for (int b = 0; b < bucketCount; b ++) {
+            bucketOrder[sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b])] ++] = b;
+        }
+        final int[] table = index.table;
+        final int[] slots = new int[maxBucketSize];
+        for (int b : bucketOrder) {
+            final int start = bucketStart[b];
+            final int size = bucketStart[b + 1] - start;
+            if (size == 0) {
+                // all remaining buckets are empty
+                break;
+            }
+            int d = 0;
+            outer: for (;;) {
+                for (int k = 0; k < size; k ++) {
+                    final int slot = index.slotOf(hashCodes[members[start + k]], d);
+                    if (table[slot] != -1 || contains(slots, k, slot)) {
+                        if (++ d > MAX_DISPLACEMENT) {
+                            return null;
+                        }
+                        continue outer;
+                    }
+                    slots[k] = slot;
+                }
+                break;
+            }
+            index.displacements[b] = (char) d;
+            for (int k = 0; k < size; k ++) {
+                table[slots[k]] = (int) (cdes[members[start + k]] - cd);
+            }
+        }
+        return index;
+    }
+
+    private static boolean contains(final int[] slots, final int cnt, final int slot) {
+        for (int i = 0; i < cnt; i ++) {
+            if (slots[i] == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ h >>> 16;
+    }
+
+    private static int reduce(final int hash, final int range) {
+        return (int) ((hash & 0xffff_ffffL) * range >>> 32);
+    }
+
+    private int bucketOf(final int hashCode) {
+        return reduce(mix(hashCode), displacements.length);
+    }
+
+    private int slotOf(final int hashCode, final int displacement) {
+        return reduce(mix(hashCode + 0x9e3779b9 * (displacement + 1)), tableSize);
+    }
+
+    long get(final int index) {
+        final int val = index < tableSize ? table[index] : overflow[index - tableSize];
+        return val == -1 ? -1 : cd + (val & 0xffff_ffffL);
+    }
+
+    int probe(final int hashCode, final int attempt) {
+        if (attempt == 0) {
+            return slotOf(hashCode, displacements[bucketOf(hashCode)]);
+        }
+        return tableSize + (hashCode + attempt - 1 & overflow.length - 1);
+    }
+
+    int getMaxProbes() {
+        return overflow.length == 0 ? 1 : overflow.length;
+    }
+
+    int getProbeLength(final int hashCode, final int slot) {
+        return slot < tableSize ? 1 : (slot - tableSize - hashCode & overflow.length - 1) + 2;
+    }
+
+    int getSlotCount() {
+        return tableSize + overflow.length;
+    }
+
+    int getTableBytes() {
+        return 4 + table.length * 4 + overflow.length * 4 + displacements.length * 2;
+    }
+
+    void writeTo(final ByteBuffer buf) {
+        buf.putInt(overflow.length);
+        buf.asIntBuffer().put(table).put(overflow);
+        buf.position(buf.position() + (table.length + overflow.length) * 4);
+        buf.asCharBuffer().put(displacements);
+        buf.position(buf.position() + displacements.length * 2);
+    }
+
+    void readFrom(final ByteBuffer buf) {
+        final int overflowLength = buf.getInt();
+        if (overflowLength < 0 || Integer.bitCount(overflowLength) > 1 || overflowLength > buf.remaining() >> 2) {
+            throw new BufferUnderflowException();
+        }
+        overflow = overflowLength == 0 ? NO_OVERFLOW : new int[overflowLength];
+        buf.asIntBuffer().get(table).get(overflow);
+        buf.position(buf.position() + (table.length + overflow.length) * 4);
+        buf.asCharBuffer().get(displacements);
+        buf.position(buf.position() + displacements.length * 2);
+    }
+}
@@ -0,0 +1,13 @@
+package org.wildfly.common.archive;
+
+/**
+ * An index which is filled one entry at a time, placing each entry in the first free slot found by linear probing
+ * from the slot given by its hash code.
+ */
+abstract class ProbingIndex extends Index {
+    ProbingIndex(final int entries) {
+        super(entries);
+    }
+
+    abstract void put(int index, long offset);
+}
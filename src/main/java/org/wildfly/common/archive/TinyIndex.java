@@ -1,11 +1,12 @@
 package org.wildfly.common.archive;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * An index for archives less than 64KB in size.
  */
-final class TinyIndex extends Index {
+final class TinyIndex extends ProbingIndex {
     private final short[] table;
 
     TinyIndex(final int entries) {
@@ -29,4 +30,18 @@ final class TinyIndex extends Index {
         }
         table[index] = (short) offset;
     }
+
+    int getTableBytes() {
+        return table.length * 2;
+    }
+
+    void writeTo(final ByteBuffer buf) {
+        buf.asShortBuffer().put(table);
+        buf.position(buf.position() + getTableBytes());
+    }
+
+    void readFrom(final ByteBuffer buf) {
+        buf.asShortBuffer().get(table);
+        buf.position(buf.position() + getTableBytes());
+    }
 }
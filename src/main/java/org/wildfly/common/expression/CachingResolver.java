@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.common.expression;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiConsumer;
+
+import org.wildfly.common._private.CommonMessages;
+
+/**
+ * An expansion function which resolves keys against a snapshot of the system properties and/or the environment,
+ * in the same way as {@link Expression#evaluateWithPropertiesAndEnvironment(boolean)} and its relatives.  Since the
+ * snapshot is an immutable hash map, resolving a key involves no locking and no security manager permission checks,
+ * which makes this resolver well suited to evaluating many expressions at once.
+ * <p>
+ * The snapshot is taken when the resolver is created, and retaken by {@link #refresh()}.  A property change hook may
+ * instead call {@link #invalidate()}, in which case the snapshot is retaken when a key is next resolved.  Whoever
+ * causes a snapshot to be taken must have all required security manager permissions.
+ */
+public final class CachingResolver implements BiConsumer<ResolveContext<RuntimeException>, StringBuilder> {
+    private final boolean properties;
+    private final boolean environment;
+    private final boolean failOnNoDefault;
+    private volatile Map<String, String> propertyMap;
+    private volatile Map<String, String> environmentMap;
+
+    private CachingResolver(final boolean properties, final boolean environment, final boolean failOnNoDefault) {
+        this.properties = properties;
+        this.environment = environment;
+        this.failOnNoDefault = failOnNoDefault;
+        refresh();
+    }
+
+    /**
+     * Create a resolver for system properties and environment properties in the JBoss style (i.e. using the prefix
+     * {@code "env."} to designate an environment property).
+     *
+     * @param failOnNoDefault {@code true} to throw an {@link IllegalArgumentException} if an unresolvable key has no
+     *      default value; {@code false} to expand such keys to an empty string
+     * @return the resolver (not {@code null})
+     */
+    public static CachingResolver ofPropertiesAndEnvironment(boolean failOnNoDefault) {
+        return new CachingResolver(true, true, failOnNoDefault);
+    }
+
+    /**
+     * Create a resolver for system properties.
+     *
+     * @param failOnNoDefault {@code true} to throw an {@link IllegalArgumentException} if an unresolvable key has no
+     *      default value; {@code false} to expand such keys to an empty string
+     * @return the resolver (not {@code null})
+     */
+    public static CachingResolver ofProperties(boolean failOnNoDefault) {
+        return new CachingResolver(true, false, failOnNoDefault);
+    }
+
+    /**
+     * Create a resolver for environment properties.
+     *
+     * @param failOnNoDefault {@code true} to throw an {@link IllegalArgumentException} if an unresolvable key has no
+     *      default value; {@code false} to expand such keys to an empty string
+     * @return the resolver (not {@code null})
+     */
+    public static CachingResolver ofEnvironment(boolean failOnNoDefault) {
+        return new CachingResolver(false, true, failOnNoDefault);
+    }
+
+    /**
+     * Take a new snapshot of the system properties and the environment.
+     */
+    public void refresh() {
+        takeSnapshot();
+    }
+
+    private Map<String, String> takeSnapshot() {
+        environmentMap = environment ? System.getenv() : Collections.emptyMap();
+        final Map<String, String> propertyMap;
+        if (properties) {
+            final Properties systemProperties = System.getProperties();
+            final HashMap<String, String> map = new HashMap<>();
+            for (String name : systemProperties.stringPropertyNames()) {
+                final String value = systemProperties.getProperty(name);
+                if (value != null) {
+                    map.put(name, value);
+                }
+            }
+            propertyMap = map;
+        } else {
+            propertyMap = Collections.emptyMap();
+        }
+        this.propertyMap = propertyMap;
+        return propertyMap;
+    }
+
+    /**
+     * Discard the snapshot, so that a new one is taken when a key is next resolved.
+     */
+    public void invalidate() {
+        propertyMap = null;
+    }
+
+    private Map<String, String> getPropertyMap() {
+        Map<String, String> propertyMap = this.propertyMap;
+        if (propertyMap == null) {
+            // a concurrent invalidate may clear the field again, so use the snapshot taken here
+            propertyMap = takeSnapshot();
+        }
+        return propertyMap;
+    }
+
+    public void accept(final ResolveContext<RuntimeException> context, final StringBuilder builder) {
+        final String key = context.getKey();
+        if (environment && (! properties || key.startsWith("env."))) {
+            final String env = properties ? key.substring(4) : key;
+            final String val = environmentMap.get(env);
+            if (val == null) {
+                if (failOnNoDefault && ! context.hasDefault()) {
+                    throw CommonMessages.msg.unresolvedEnvironmentProperty(env);
+                }
+                context.expandDefault();
+            } else {
+                builder.append(val);
+            }
+        } else {
+            final String val = getPropertyMap().get(key);
+            if (val == null) {
+                if (failOnNoDefault && ! context.hasDefault()) {
+                    throw CommonMessages.msg.unresolvedSystemProperty(key);
+                }
+                context.expandDefault();
+            } else {
+                builder.append(val);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.common.expression;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of compiled expressions, keyed by expression string and flags.  Lookups do not lock.  Values are
+ * softly referenced, so that the cache gives way under memory pressure, and when the cache grows past its size
+ * the least recently used quarter of the entries is evicted in one pass, which keeps the cost of eviction low.
+ */
+final class CompileCache {
+    static final int MAX_ENTRIES = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> {
+        try {
+            return Integer.valueOf(System.getProperty("jboss.expression.compile-cache.size", "1024"));
+        } catch (NumberFormatException ignored) {
+            return Integer.valueOf(1024);
+        }
+    }).intValue();
+
+    static final CompileCache INSTANCE = new CompileCache(MAX_ENTRIES);
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Expression> queue = new ReferenceQueue<>();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CompileCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get a cached expression.
+     *
+     * @param string the expression string
+     * @param flags the compilation flags
+     * @return the expression, or {@code null} if it is not cached
+     */
+    Expression get(String string, EnumSet<Expression.Flag> flags) {
+        if (maxEntries <= 0) {
+            misses.increment();
+            return null;
+        }
+        final Entry entry = map.get(new Key(string, flags));
+        final Expression expression = entry == null ? null : entry.get();
+        if (expression == null) {
+            misses.increment();
+            return null;
+        }
+        entry.used = clock.get();
+        hits.increment();
+        return expression;
+    }
+
+    /**
+     * Add a newly compiled expression to the cache.
+     *
+     * @param string the expression string
+     * @param flags the compilation flags
+     * @param expression the compiled expression
+     */
+    void put(String string, EnumSet<Expression.Flag> flags, Expression expression) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        expungeCleared();
+        final Key key = new Key(string, flags);
+        final Entry entry = new Entry(key, expression, queue);
+        entry.used = clock.incrementAndGet();
+        map.put(key, entry);
+        if (map.size() > maxEntries && evictLock.tryLock()) {
+            try {
+                evict();
+            } finally {
+                evictLock.unlock();
+            }
+        }
+    }
+
+    private void expungeCleared() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            map.remove(entry.key, entry);
+        }
+    }
+
+    private void evict() {
+        final ArrayList<Entry> entries = new ArrayList<>(map.values());
+        final int excess = entries.size() - (maxEntries - (maxEntries >> 2));
+        if (excess <= 0) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(e -> e.used));
+        for (int i = 0; i < excess; i ++) {
+            final Entry entry = entries.get(i);
+            map.remove(entry.key, entry);
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    private static final class Key {
+        private final String string;
+        private final int flags;
+        private final int hashCode;
+
+        Key(final String string, final EnumSet<Expression.Flag> flags) {
+            this.string = string;
+            int bits = 0;
+            for (Expression.Flag flag : flags) {
+                bits |= 1 << flag.ordinal();
+            }
+            this.flags = bits;
+            hashCode = string.hashCode() * 19 + bits;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        private boolean equals(final Key other) {
+            return this == other || other != null && flags == other.flags && string.equals(other.string);
+        }
+    }
+
+    private static final class Entry extends SoftReference<Expression> {
+        final Key key;
+        /**
+         * The clock value when this entry was last used; races between updates are harmless.
+         */
+        volatile long used;
+
+        Entry(final Key key, final Expression referent, final ReferenceQueue<Expression> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
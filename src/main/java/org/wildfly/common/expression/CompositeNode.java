@@ -49,6 +49,12 @@ final class CompositeNode extends Node {
         }
     }
 
+    void flatten(final List<Node> segments) {
+        for (Node node : subNodes) {
+            node.flatten(segments);
+        }
+    }
+
     public String toString() {
         StringBuilder b = new StringBuilder();
         b.append('*');
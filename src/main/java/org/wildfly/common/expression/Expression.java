@@ -18,9 +18,12 @@
 
 package org.wildfly.common.expression;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -28,7 +31,9 @@ import java.util.function.BiConsumer;
 
 import org.wildfly.common.Assert;
 import org.wildfly.common._private.CommonMessages;
+import org.wildfly.common.bytes.ByteStringBuilder;
 import org.wildfly.common.function.ExceptionBiConsumer;
+import org.wildfly.common.function.ExceptionConsumer;
 
 /**
  * A compiled property-expansion expression string.  An expression string is a mix of plain strings and expression
@@ -37,14 +42,57 @@ import org.wildfly.common.function.ExceptionBiConsumer;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class Expression {
-    private final Node content;
     private final Set<String> referencedStrings;
+    /**
+     * The evaluation plan, which is the top level of the expression as a flat sequence of segments.  Each segment is
+     * either a literal string, with adjacent literals merged, or an expression, which is found at the same index of
+     * {@link #expressions} when the literal is {@code null}.
+     */
+    private final String[] literals;
+    private final ExpressionNode[] expressions;
+    /**
+     * The length of the output, not counting expansions.
+     */
+    private final int literalLength;
+    /**
+     * The whole value of an expression which has no expansions, or {@code null} if there are expansions.
+     */
+    private final String literalValue;
 
     Expression(Node content) {
-        this.content = content;
         HashSet<String> strings = new HashSet<>();
         content.catalog(strings);
         referencedStrings = strings.isEmpty() ? Collections.emptySet() : strings.size() == 1 ? Collections.singleton(strings.iterator().next()) : Collections.unmodifiableSet(strings);
+        final List<Node> nodes = new ArrayList<>();
+        content.flatten(nodes);
+        final List<String> literals = new ArrayList<>(nodes.size());
+        final List<ExpressionNode> expressions = new ArrayList<>(nodes.size());
+        final StringBuilder b = new StringBuilder();
+        int literalLength = 0;
+        for (Node node : nodes) {
+            if (node instanceof LiteralNode) {
+                b.append(node.toString());
+            } else {
+                if (b.length() > 0) {
+                    literals.add(b.toString());
+                    expressions.add(null);
+                    literalLength += b.length();
+                    b.setLength(0);
+                }
+                literals.add(null);
+                expressions.add((ExpressionNode) node);
+            }
+        }
+        if (b.length() > 0) {
+            literals.add(b.toString());
+            expressions.add(null);
+            literalLength += b.length();
+        }
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.expressions = expressions.toArray(new ExpressionNode[expressions.size()]);
+        this.literalLength = literalLength;
+        final int size = literals.size();
+        literalValue = size == 0 ? "" : size == 1 && literals.get(0) != null ? literals.get(0) : null;
     }
 
     /**
@@ -71,11 +119,174 @@ public final class Expression {
      */
     public <E extends Exception> String evaluateException(final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction) throws E {
         Assert.checkNotNullParam("expandFunction", expandFunction);
-        final StringBuilder b = new StringBuilder();
-        content.emit(new ResolveContext<E>(expandFunction, b), expandFunction);
+        final String literalValue = this.literalValue;
+        if (literalValue != null) {
+            return literalValue;
+        }
+        final StringBuilder b = new StringBuilder(literalLength + (expressions.length << 4));
+        emit(new ResolveContext<E>(expandFunction, b), expandFunction);
         return b.toString();
     }
 
+    /**
+     * Evaluate the expression with the given expansion function, which may throw a checked exception, writing the
+     * result to the given target as it is produced.  Literal parts of the expression are written straight to the
+     * target, and each expansion is written as soon as it is complete, so the whole result is never held in memory.
+     *
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @param target the target to write to (must not be {@code null})
+     * @param <E> the exception type thrown by the expansion function
+     * @throws E if the expansion function throws an exception
+     * @throws IOException if writing to the target failed
+     */
+    public <E extends Exception> void evaluateException(final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction, final Appendable target) throws E, IOException {
+        Assert.checkNotNullParam("target", target);
+        this.<E, IOException>emit(expandFunction, target::append);
+    }
+
+    /**
+     * Evaluate the expression with the given expansion function, writing the result to the given target as it is
+     * produced; see {@link #evaluateException(ExceptionBiConsumer, Appendable)}.
+     *
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @param target the target to write to (must not be {@code null})
+     * @throws IOException if writing to the target failed
+     */
+    public void evaluate(final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> expandFunction, final Appendable target) throws IOException {
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        evaluateException(expandFunction::accept, target);
+    }
+
+    /**
+     * Evaluate the expression with the given expansion function, which may throw a checked exception, appending the
+     * result to the given byte string builder in UTF-8 as it is produced.
+     *
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @param target the byte string builder to append to (must not be {@code null})
+     * @param <E> the exception type thrown by the expansion function
+     * @throws E if the expansion function throws an exception
+     */
+    public <E extends Exception> void evaluateException(final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction, final ByteStringBuilder target) throws E {
+        Assert.checkNotNullParam("target", target);
+        this.<E, RuntimeException>emit(expandFunction, target::append);
+    }
+
+    /**
+     * Evaluate the expression with the given expansion function, appending the result to the given byte string
+     * builder in UTF-8 as it is produced.
+     *
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @param target the byte string builder to append to (must not be {@code null})
+     */
+    public void evaluate(final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> expandFunction, final ByteStringBuilder target) {
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        evaluateException(expandFunction::accept, target);
+    }
+
+    private <E extends Exception, X extends Exception> void emit(final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction, final ExceptionConsumer<CharSequence, X> target) throws E, X {
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        final String literalValue = this.literalValue;
+        if (literalValue != null) {
+            target.accept(literalValue);
+            return;
+        }
+        final String[] literals = this.literals;
+        final ExpressionNode[] expressions = this.expressions;
+        final StringBuilder b = new StringBuilder();
+        final ResolveContext<E> context = new ResolveContext<E>(expandFunction, b);
+        for (int i = 0; i < literals.length; i ++) {
+            final String literal = literals[i];
+            if (literal != null) {
+                target.accept(literal);
+            } else {
+                b.setLength(0);
+                expressions[i].emit(context, expandFunction);
+                target.accept(b);
+            }
+        }
+    }
+
+    /**
+     * Run the evaluation plan, appending the output to the context's string builder.
+     */
+    <E extends Exception> void emit(final ResolveContext<E> context, final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction) throws E {
+        final String[] literals = this.literals;
+        final ExpressionNode[] expressions = this.expressions;
+        for (int i = 0; i < literals.length; i ++) {
+            final String literal = literals[i];
+            if (literal != null) {
+                context.getStringBuilder().append(literal);
+            } else {
+                expressions[i].emit(context, expandFunction);
+            }
+        }
+    }
+
+    /**
+     * Evaluate many expressions with the given expansion function, which may throw a checked exception.  The function
+     * is applied once for each distinct key across all of the expressions, and its result reused wherever else
+     * the key appears, so the function must give the same result for the same key throughout.  A key is resolved
+     * again each time it appears only if the function consulted the default value of the expression for it, since
+     * the result may then depend on the default.  All of the expressions are expanded through one shared output
+     * buffer.
+     *
+     * @param expressions the expressions to evaluate (must not be {@code null})
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @param <E> the exception type thrown by the expansion function
+     * @return the list of expanded strings, in the iteration order of the given expressions (not {@code null})
+     * @throws E if the expansion function throws an exception
+     */
+    public static <E extends Exception> List<String> evaluateAllException(final Collection<Expression> expressions, final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> expandFunction) throws E {
+        Assert.checkNotNullParam("expressions", expressions);
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        final HashMap<String, String> resolved = new HashMap<>();
+        final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> memoFunction = (c, b) -> {
+            final String key = c.getKey();
+            final String value = resolved.get(key);
+            if (value != null) {
+                b.append(value);
+                return;
+            }
+            final int start = b.length();
+            final boolean oldDefaultUsed = c.setDefaultUsed(false);
+            try {
+                expandFunction.accept(c, b);
+                if (! c.isDefaultUsed()) {
+                    resolved.put(key, b.substring(start));
+                }
+            } finally {
+                c.setDefaultUsed(oldDefaultUsed);
+            }
+        };
+        final StringBuilder b = new StringBuilder();
+        final ResolveContext<E> context = new ResolveContext<E>(memoFunction, b);
+        final List<String> results = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions) {
+            final String literalValue = expression.literalValue;
+            if (literalValue != null) {
+                results.add(literalValue);
+            } else {
+                b.setLength(0);
+                expression.emit(context, memoFunction);
+                results.add(b.toString());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Evaluate many expressions with the given expansion function.  The function is applied once for each distinct
+     * key across all of the expressions; see {@link #evaluateAllException(Collection, ExceptionBiConsumer)}.
+     *
+     * @param expressions the expressions to evaluate (must not be {@code null})
+     * @param expandFunction the expansion function to apply (must not be {@code null})
+     * @return the list of expanded strings, in the iteration order of the given expressions (not {@code null})
+     */
+    public static List<String> evaluateAll(final Collection<Expression> expressions, final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> expandFunction) {
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        return evaluateAllException(expressions, expandFunction::accept);
+    }
+
     /**
      * Evaluate the expression with the given expansion function.  The given "function"
      * is a predicate which returns {@code true} if the expansion succeeded or {@code false} if it failed (in which case
@@ -184,7 +395,9 @@ public final class Expression {
     }
 
     /**
-     * Compile an expression string.
+     * Compile an expression string.  Compiled expressions are kept in a bounded cache, so compiling the same string
+     * with the same flags again usually returns the same instance without parsing.  The cache size may be set with
+     * the {@code jboss.expression.compile-cache.size} system property; a size of zero disables the cache.
      *
      * @param string the expression string (must not be {@code null})
      * @param flags optional flags to apply which affect the compilation (must not be {@code null})
@@ -193,15 +406,39 @@ public final class Expression {
     public static Expression compile(String string, EnumSet<Flag> flags) {
         Assert.checkNotNullParam("string", string);
         Assert.checkNotNullParam("flags", flags);
-        final Node content;
-        final Itr itr;
-        if (flags.contains(Flag.NO_TRIM)) {
-            itr = new Itr(string);
-        } else {
-            itr = new Itr(string.trim());
+        final CompileCache cache = CompileCache.INSTANCE;
+        Expression expression = cache.get(string, flags);
+        if (expression == null) {
+            final Node content;
+            final Itr itr;
+            if (flags.contains(Flag.NO_TRIM)) {
+                itr = new Itr(string);
+            } else {
+                itr = new Itr(string.trim());
+            }
+            content = parseString(itr, true, false, false, flags);
+            expression = content == Node.NULL ? EMPTY : new Expression(content);
+            cache.put(string, flags, expression);
         }
-        content = parseString(itr, true, false, false, flags);
-        return content == Node.NULL ? EMPTY : new Expression(content);
+        return expression;
+    }
+
+    /**
+     * Get the number of times that {@link #compile(String, EnumSet) compile} found the expression in the cache.
+     *
+     * @return the cache hit count
+     */
+    public static long getCompileCacheHitCount() {
+        return CompileCache.INSTANCE.getHitCount();
+    }
+
+    /**
+     * Get the number of times that {@link #compile(String, EnumSet) compile} had to parse the expression string.
+     *
+     * @return the cache miss count
+     */
+    public static long getCompileCacheMissCount() {
+        return CompileCache.INSTANCE.getMissCount();
     }
 
     private static final Expression EMPTY = new Expression(Node.NULL);
@@ -19,6 +19,7 @@
 package org.wildfly.common.expression;
 
 import java.util.HashSet;
+import java.util.List;
 
 import org.wildfly.common.function.ExceptionBiConsumer;
 
@@ -54,6 +55,10 @@ class ExpressionNode extends Node {
         defaultValue.catalog(strings);
     }
 
+    void flatten(final List<Node> segments) {
+        segments.add(this);
+    }
+
     boolean isGeneralExpression() {
         return generalExpression;
     }
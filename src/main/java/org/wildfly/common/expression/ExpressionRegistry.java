@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.common.expression;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.wildfly.common.Assert;
+
+/**
+ * A registry of expressions which are evaluated with one expansion function, and which remembers the last result of
+ * each along with the keys it depends on, so that when some keys change only the expressions which depend on them
+ * need to be evaluated again.
+ * <p>
+ * The keys of an expression are those given by {@link Expression#getReferencedStrings()}, which include the keys
+ * that appear in default values, together with every key which was actually resolved the last time the expression
+ * was evaluated; the latter covers keys which are themselves built by expansion.  Instances are thread-safe.
+ * <p>
+ * Expressions are registered by identity.  Compiling the same string twice usually yields the same instance from
+ * the compile cache, but not if it has been evicted in between or the cache is disabled, in which case the two
+ * instances are registered, evaluated, and reported separately.
+ */
+public final class ExpressionRegistry {
+    private final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> expandFunction;
+    private final HashMap<Expression, Registration> registrations = new HashMap<>();
+    private final HashMap<String, Set<Expression>> dependents = new HashMap<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param expandFunction the expansion function to evaluate expressions with (must not be {@code null})
+     */
+    public ExpressionRegistry(final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> expandFunction) {
+        Assert.checkNotNullParam("expandFunction", expandFunction);
+        this.expandFunction = expandFunction;
+    }
+
+    /**
+     * Register an expression, evaluating it if it is not already registered.
+     *
+     * @param expression the expression (must not be {@code null})
+     * @return the result of the expression (not {@code null})
+     */
+    public synchronized String register(Expression expression) {
+        Assert.checkNotNullParam("expression", expression);
+        Registration registration = registrations.get(expression);
+        if (registration == null) {
+            registration = evaluate(expression);
+            registrations.put(expression, registration);
+            index(expression, registration.keys);
+        }
+        return registration.result;
+    }
+
+    /**
+     * Remove an expression from this registry.
+     *
+     * @param expression the expression (must not be {@code null})
+     * @return {@code true} if the expression was registered, {@code false} otherwise
+     */
+    public synchronized boolean unregister(Expression expression) {
+        Assert.checkNotNullParam("expression", expression);
+        final Registration registration = registrations.remove(expression);
+        if (registration == null) {
+            return false;
+        }
+        unindex(expression, registration.keys);
+        return true;
+    }
+
+    /**
+     * Get the last result of a registered expression.
+     *
+     * @param expression the expression (must not be {@code null})
+     * @return the result, or {@code null} if the expression is not registered
+     */
+    public synchronized String getResult(Expression expression) {
+        Assert.checkNotNullParam("expression", expression);
+        final Registration registration = registrations.get(expression);
+        return registration == null ? null : registration.result;
+    }
+
+    /**
+     * Evaluate again every registered expression which depends on any of the given keys.  If an evaluation fails,
+     * its exception is thrown, and every expression keeps its previous result.
+     *
+     * @param changedKeys the keys whose values have changed (must not be {@code null})
+     * @return the expressions whose results have changed, mapped to their new results (not {@code null})
+     */
+    public synchronized Map<Expression, String> update(Collection<String> changedKeys) {
+        Assert.checkNotNullParam("changedKeys", changedKeys);
+        final LinkedHashSet<Expression> affected = new LinkedHashSet<>();
+        for (String key : changedKeys) {
+            final Set<Expression> set = dependents.get(key);
+            if (set != null) {
+                affected.addAll(set);
+            }
+        }
+        if (affected.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final LinkedHashMap<Expression, Registration> evaluated = new LinkedHashMap<>();
+        for (Expression expression : affected) {
+            evaluated.put(expression, evaluate(expression));
+        }
+        // only apply the results once every evaluation has succeeded
+        final LinkedHashMap<Expression, String> changed = new LinkedHashMap<>();
+        for (Map.Entry<Expression, Registration> entry : evaluated.entrySet()) {
+            final Expression expression = entry.getKey();
+            final Registration registration = entry.getValue();
+            final Registration old = registrations.put(expression, registration);
+            unindex(expression, old.keys);
+            index(expression, registration.keys);
+            if (! old.result.equals(registration.result)) {
+                changed.put(expression, registration.result);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get the number of registered expressions.
+     *
+     * @return the number of expressions
+     */
+    public synchronized int size() {
+        return registrations.size();
+    }
+
+    private Registration evaluate(Expression expression) {
+        final HashSet<String> keys = new HashSet<>(expression.getReferencedStrings());
+        final String result = expression.evaluate((c, b) -> {
+            keys.add(c.getKey());
+            expandFunction.accept(c, b);
+        });
+        return new Registration(result, keys);
+    }
+
+    private void index(Expression expression, Set<String> keys) {
+        for (String key : keys) {
+            dependents.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(expression);
+        }
+    }
+
+    private void unindex(Expression expression, Set<String> keys) {
+        for (String key : keys) {
+            final Set<Expression> set = dependents.get(key);
+            if (set != null && set.remove(expression) && set.isEmpty()) {
+                dependents.remove(key);
+            }
+        }
+    }
+
+    private static final class Registration {
+        final String result;
+        final Set<String> keys;
+
+        Registration(final String result, final Set<String> keys) {
+            this.result = result;
+            this.keys = keys;
+        }
+    }
+}
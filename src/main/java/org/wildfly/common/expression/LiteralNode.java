@@ -20,6 +20,7 @@ package org.wildfly.common.expression;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.List;
 
 import org.wildfly.common.function.ExceptionBiConsumer;
 
@@ -60,6 +61,10 @@ class LiteralNode extends Node {
     void catalog(final HashSet<String> strings) {
     }
 
+    void flatten(final List<Node> segments) {
+        segments.add(this);
+    }
+
     public String toString() {
         final String toString = this.toString;
         return toString != null ? toString : (this.toString = literalValue.substring(start, end));
@@ -50,6 +50,9 @@ abstract class Node {
         void catalog(final HashSet<String> strings) {
         }
 
+        void flatten(final List<Node> segments) {
+        }
+
         public String toString() {
             return "<<null>>";
         }
@@ -58,5 +61,12 @@ abstract class Node {
     abstract <E extends Exception> void emit(final ResolveContext<E> context, final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> resolveFunction) throws E;
 
     abstract void catalog(final HashSet<String> strings);
+
+    /**
+     * Add the literal and expression nodes which make up this node to the given list, in order.
+     *
+     * @param segments the list to add to
+     */
+    abstract void flatten(final List<Node> segments);
 }
 
@@ -34,6 +34,10 @@ public final class ResolveContext<E extends Exception> {
     private final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> function;
     private StringBuilder builder;
     private ExpressionNode current;
+    /**
+     * Whether the default value of the current expression has been consulted.
+     */
+    private boolean defaultUsed;
 
     ResolveContext(final ExceptionBiConsumer<ResolveContext<E>, StringBuilder, E> function, final StringBuilder builder) {
         this.function = function;
@@ -71,6 +75,7 @@ public final class ResolveContext<E extends Exception> {
      */
     public void expandDefault(StringBuilder target) throws E {
         if (current == null) throw new IllegalStateException();
+        defaultUsed = true;
         emitToBuilder(target, current.getDefaultValue());
     }
 
@@ -112,6 +117,7 @@ public final class ResolveContext<E extends Exception> {
      */
     public String getExpandedDefault() throws E {
         if (current == null) throw new IllegalStateException();
+        defaultUsed = true;
         final Node defaultValue = current.getDefaultValue();
         if (defaultValue instanceof LiteralNode) {
             return defaultValue.toString();
@@ -129,9 +135,22 @@ public final class ResolveContext<E extends Exception> {
      * @return {@code true} if there is a default value, {@code false} otherwise
      */
     public boolean hasDefault() {
+        defaultUsed = true;
         return current.getDefaultValue() != Node.NULL;
     }
 
+    boolean isDefaultUsed() {
+        return defaultUsed;
+    }
+
+    boolean setDefaultUsed(final boolean defaultUsed) {
+        try {
+            return this.defaultUsed;
+        } finally {
+            this.defaultUsed = defaultUsed;
+        }
+    }
+
     StringBuilder getStringBuilder() {
         return builder;
     }
@@ -4,6 +4,8 @@ import static java.lang.Math.min;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -12,7 +14,11 @@ import java.util.zip.Inflater;
 final class JDKSpecific {
     private JDKSpecific() {}
 
-    static ByteBuffer inflate(final Inflater inflater, final ByteBuffer[] bufs, long offset, final int compSize, final int uncompSize) throws DataFormatException, IOException {
+    static int getRuntimeRelease() {
+        return Runtime.version().feature();
+    }
+
+    static ByteBuffer inflate(final Inflater inflater, final ByteBuffer[] bufs, long offset, final int compSize, final int uncompSize, final CRC32 crc32) throws DataFormatException, IOException {
         int cnt = 0;
         byte[] out = new byte[uncompSize];
         int op = 0;
@@ -24,7 +30,12 @@ final class JDKSpecific {
             cnt += buf.remaining();
             inflater.setInput(buf);
             do {
-                op += inflater.inflate(out, op, uncompSize - op);
+                final int n = inflater.inflate(out, op, uncompSize - op);
+                if (crc32 != null) {
+                    // checksum the output while it is still in cache
+                    crc32.update(out, op, n);
+                }
+                op += n;
             } while (! inflater.needsInput());
         }
         if (! inflater.finished()) {
@@ -32,4 +43,80 @@ final class JDKSpecific {
         }
         return ByteBuffer.wrap(out);
     }
+
+    static void inflate(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final long compSize, final ByteBuffer target, final CRC32 crc32) throws DataFormatException, IOException {
+        long cnt = 0;
+        while (! inflater.finished()) {
+            if (inflater.needsInput()) {
+                if (cnt == compSize) {
+                    throw new IOException("Corrupted compression stream");
+                }
+                final ByteBuffer buf = bufs[Archive.bufIdx(offset + cnt)].duplicate();
+                buf.position(Archive.bufOffs(offset + cnt));
+                buf.limit((int) min(buf.capacity(), buf.position() + compSize - cnt));
+                cnt += buf.remaining();
+                inflater.setInput(buf);
+            } else if (inflater.needsDictionary()) {
+                throw new IOException("Corrupted compression stream");
+            }
+            final int start = target.position();
+            final int op = inflater.inflate(target);
+            if (op == 0 && ! target.hasRemaining() && ! inflater.finished() && ! inflater.needsInput()) {
+                // more output than the entry size
+                throw new IOException("Corrupted compression stream");
+            }
+            if (crc32 != null && op > 0) {
+                // checksum the output while it is still in cache
+                final ByteBuffer out = target.duplicate();
+                out.position(start).limit(start + op);
+                crc32.update(out);
+            }
+        }
+    }
+
+    private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = new ThreadLocal<>();
+
+    /**
+     * Take the transfer buffer of this thread for the duration of a call, so that a call made on the same thread
+     * meanwhile (for example by a target channel which reads from another archive) gets a buffer of its own.
+     */
+    private static ByteBuffer takeTransferBuffer() {
+        final ByteBuffer buffer = TRANSFER_BUFFER.get();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(16384);
+        }
+        TRANSFER_BUFFER.set(null);
+        return buffer;
+    }
+
+    static long inflateTo(final Inflater inflater, final ByteBuffer[] bufs, final long offset, final long compSize, final WritableByteChannel target) throws DataFormatException, IOException {
+        final ByteBuffer out = takeTransferBuffer();
+        try {
+            long cnt = 0;
+            long total = 0;
+            while (! inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (cnt == compSize) {
+                        throw new IOException("Corrupted compression stream");
+                    }
+                    final ByteBuffer buf = bufs[Archive.bufIdx(offset + cnt)].duplicate();
+                    buf.position(Archive.bufOffs(offset + cnt));
+                    buf.limit((int) min(buf.capacity(), buf.position() + compSize - cnt));
+                    cnt += buf.remaining();
+                    inflater.setInput(buf);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupted compression stream");
+                }
+                out.clear();
+                total += inflater.inflate(out);
+                out.flip();
+                while (out.hasRemaining()) {
+                    target.write(out);
+                }
+            }
+            return total;
+        } finally {
+            TRANSFER_BUFFER.set(out);
+        }
+    }
 }
@@ -20,6 +20,9 @@ package org.wildfly.common.archive;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -27,7 +30,7 @@ import org.junit.Test;
  */
 public class ArchiveIndexTest {
 
-    private void doIndexTest(Index index) {
+    private void doIndexTest(ProbingIndex index) {
         // simple get/put
         index.put(4, 1234);
         assertEquals(1234, index.get(4));
@@ -55,4 +58,50 @@ public class ArchiveIndexTest {
     public void testHugeIndex() {
         doIndexTest(new HugeIndex(112));
     }
+
+    @Test
+    public void testPerfectIndex() {
+        final int seed = new Random(42).nextInt();
+        for (int entries : new int[] { 1, 2, 100, 5000, 100_000 }) {
+            final long cd = 1000;
+            final long[] cdes = new long[entries];
+            final int[] hashCodes = new int[entries];
+            for (int i = 0; i < entries; i ++) {
+                cdes[i] = cd + i * 50L;
+                // distinct, but otherwise arbitrary
+                hashCodes[i] = i * 0x9e3779b1 + seed;
+            }
+            final PerfectIndex index = PerfectIndex.build(cd + entries * 50L + 22, cd, cdes, hashCodes);
+            assertNotNull(index);
+            assertEquals(1, index.getMaxProbes());
+            assertTrue(index.size() < entries * 1.05 + 2);
+            for (int i = 0; i < entries; i ++) {
+                assertEquals(cdes[i], index.get(index.probe(hashCodes[i], 0)));
+            }
+            // round trip
+            final ByteBuffer buf = ByteBuffer.allocate(index.getTableBytes());
+            index.writeTo(buf);
+            assertFalse(buf.hasRemaining());
+            buf.flip();
+            final PerfectIndex copy = new PerfectIndex(entries, cd);
+            copy.readFrom(buf);
+            for (int i = 0; i < entries; i ++) {
+                assertEquals(cdes[i], copy.get(copy.probe(hashCodes[i], 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testPerfectIndexCollision() {
+        // equal hash codes go to the overflow table
+        final long[] cdes = { 0, 50, 100, 150 };
+        final PerfectIndex index = PerfectIndex.build(1000, 0, cdes, new int[] { 1, 2, 1, 1 });
+        assertNotNull(index);
+        assertEquals(8, index.getMaxProbes());
+        assertEquals(0, index.get(index.probe(1, 0)));
+        assertEquals(50, index.get(index.probe(2, 0)));
+        assertEquals(100, index.get(index.probe(1, 1)));
+        assertEquals(150, index.get(index.probe(1, 2)));
+        assertEquals(-1, index.get(index.probe(1, 3)));
+    }
 }
@@ -23,15 +23,39 @@ import static org.junit.Assert.*;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.stream.Stream;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Test;
 
@@ -101,4 +125,819 @@ public class ArchiveTest {
         assertEquals(0, contentsBuf.remaining());
         assertArrayEquals(contentBytes, compareBytes);
     }
+
+    static byte[] makeArchive(int method, int count) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(os)) {
+            for (int i = 0; i < count; i ++) {
+                final byte[] contentBytes = (SIMPLE_CONTENT_1 + i).getBytes(StandardCharsets.UTF_8);
+                final JarEntry jarEntry = new JarEntry("dir" + i % 7 + "/file" + i + ".txt");
+                jarEntry.setSize(contentBytes.length);
+                if (method == ZipEntry.STORED) {
+                    jarEntry.setCompressedSize(contentBytes.length);
+                    final CRC32 crc32 = new CRC32();
+                    crc32.update(contentBytes);
+                    jarEntry.setCrc(crc32.getValue());
+                }
+                jarEntry.setMethod(method);
+                jos.putNextEntry(jarEntry);
+                jos.write(contentBytes);
+                jos.closeEntry();
+            }
+        }
+        return os.toByteArray();
+    }
+
+    static void checkArchive(Archive archive, int count) throws IOException {
+        for (int i = 0; i < count; i ++) {
+            final long handle = archive.getEntryHandle("dir" + i % 7 + "/file" + i + ".txt");
+            assertNotEquals(-1, handle);
+            final ByteBuffer contents = archive.getEntryContents(handle);
+            final byte[] bytes = new byte[contents.remaining()];
+            contents.get(bytes);
+            assertEquals(SIMPLE_CONTENT_1 + i, new String(bytes, StandardCharsets.UTF_8));
+        }
+        assertEquals(-1, archive.getEntryHandle("dir0/file" + count + ".txt"));
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testIndexCache() throws IOException {
+        final Path dir = Files.createTempDirectory("archive-test");
+        final Path cacheDir = dir.resolve("cache");
+        final Path file = dir.resolve("test.jar");
+        try {
+            Files.write(file, makeArchive(ZipEntry.DEFLATED, 200));
+            checkArchive(Archive.open(file, cacheDir), 200);
+            final Path[] sidecars;
+            try (Stream<Path> stream = Files.list(cacheDir)) {
+                sidecars = stream.toArray(Path[]::new);
+            }
+            assertEquals(1, sidecars.length);
+            // this time the index comes from the sidecar
+            final FileTime sidecarTime = Files.getLastModifiedTime(sidecars[0]);
+            checkArchive(Archive.open(file, cacheDir), 200);
+            assertEquals(sidecarTime, Files.getLastModifiedTime(sidecars[0]));
+            // a changed archive must not use the stale sidecar
+            Files.write(file, makeArchive(ZipEntry.STORED, 300));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(sidecarTime.toMillis() + 10_000));
+            checkArchive(Archive.open(file, cacheDir), 300);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testParallelIndex() throws IOException {
+        final int count = 20_000;
+        final byte[] bytes = makeArchive(ZipEntry.STORED, count);
+        final Archive sequential = Archive.open(ByteBuffer.wrap(bytes));
+        final Archive parallel = Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.PARALLEL_INDEX);
+        checkArchive(parallel, count);
+        for (int i = 0; i < count; i += 97) {
+            final String name = "dir" + i % 7 + "/file" + i + ".txt";
+            assertEquals(sequential.getEntryHandle(name), parallel.getEntryHandle(name));
+        }
+    }
+
+    @Test
+    public void testLongComment() throws IOException {
+        final StringBuilder b = new StringBuilder();
+        while (b.length() < 60_000) {
+            // partial signatures to exercise the skip table
+            b.append("PK\u0005 K\u0005\u0006 PK\u0006\u0005 xyzzy ");
+        }
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(os)) {
+            jos.setComment(b.toString());
+            jos.putNextEntry(new JarEntry(TEST_CONTENT_NAME));
+            jos.write(SIMPLE_CONTENT_1.getBytes(StandardCharsets.UTF_8));
+            jos.closeEntry();
+        }
+        final Archive archive = Archive.open(ByteBuffer.wrap(os.toByteArray()));
+        final long handle = archive.getEntryHandle(TEST_CONTENT_NAME);
+        assertNotEquals(-1, handle);
+        assertEquals(SIMPLE_CONTENT_1.length(), archive.getUncompressedSize(handle));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnArchive() throws IOException {
+        final byte[] bytes = new byte[100_000];
+        Arrays.fill(bytes, (byte) 'P');
+        Archive.open(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testInflaterPool() throws IOException {
+        final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.DEFLATED, 10)));
+        checkArchive(archive, 10);
+        assertEquals(1, archive.getInflaterPoolMissCount());
+        assertEquals(9, archive.getInflaterPoolHitCount());
+        for (int i = 0; i < 10; i ++) {
+            try (InputStream is = archive.getEntryStream(archive.getEntryHandle("dir" + i % 7 + "/file" + i + ".txt"))) {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final byte[] buf = new byte[64];
+                int res;
+                while ((res = is.read(buf)) != -1) {
+                    os.write(buf, 0, res);
+                }
+                assertEquals(SIMPLE_CONTENT_1 + i, new String(os.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(1, archive.getInflaterPoolMissCount());
+        assertEquals(19, archive.getInflaterPoolHitCount());
+        archive.close();
+    }
+
+    @Test
+    public void testEntryBuffers() throws IOException {
+        final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.STORED, 10)));
+        for (int i = 0; i < 10; i ++) {
+            final ByteBuffer[] bufs = archive.getEntryBuffers(archive.getEntryHandle("dir" + i % 7 + "/file" + i + ".txt"));
+            assertEquals(1, bufs.length);
+            assertTrue(bufs[0].isReadOnly());
+            final byte[] bytes = new byte[bufs[0].remaining()];
+            bufs[0].get(bytes);
+            assertEquals(SIMPLE_CONTENT_1 + i, new String(bytes, StandardCharsets.UTF_8));
+        }
+        final Archive compressed = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.DEFLATED, 1)));
+        try {
+            compressed.getEntryBuffers(compressed.getEntryHandle("dir0/file0.txt"));
+            fail("Expected exception");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] makeLargeContent() {
+        final byte[] bytes = new byte[300_000];
+        final Random random = new Random(1234);
+        for (int i = 0; i < bytes.length; i ++) {
+            // somewhat compressible
+            bytes[i] = (byte) ('a' + random.nextInt(6));
+        }
+        return bytes;
+    }
+
+    private static byte[] makeArchive(int method, String name, byte[] contentBytes) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(os)) {
+            final JarEntry jarEntry = new JarEntry(name);
+            jarEntry.setSize(contentBytes.length);
+            if (method == ZipEntry.STORED) {
+                jarEntry.setCompressedSize(contentBytes.length);
+                final CRC32 crc32 = new CRC32();
+                crc32.update(contentBytes);
+                jarEntry.setCrc(crc32.getValue());
+            }
+            jarEntry.setMethod(method);
+            jos.putNextEntry(jarEntry);
+            jos.write(contentBytes);
+            jos.closeEntry();
+        }
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testTransferEntryTo() throws IOException {
+        final byte[] content = makeLargeContent();
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(method, TEST_CONTENT_NAME, content)));
+            final long handle = archive.getEntryHandle(TEST_CONTENT_NAME);
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            assertEquals(content.length, archive.transferEntryTo(handle, Channels.newChannel(os)));
+            assertArrayEquals(content, os.toByteArray());
+            final Path file = Files.createTempFile("archive-test", ".bin");
+            try {
+                try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    assertEquals(content.length, archive.transferEntryTo(handle, fc));
+                }
+                assertArrayEquals(content, Files.readAllBytes(file));
+            } finally {
+                Files.delete(file);
+            }
+            final ByteBuffer contents = archive.getEntryContents(handle);
+            final byte[] bytes = new byte[contents.remaining()];
+            contents.get(bytes);
+            assertArrayEquals(content, bytes);
+        }
+    }
+
+    @Test
+    public void testNestedTransferEntryTo() throws IOException {
+        final byte[] content = makeLargeContent();
+        final byte[] other = new byte[content.length];
+        new Random(1234).nextBytes(other);
+        final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.DEFLATED, TEST_CONTENT_NAME, content)));
+        final Archive otherArchive = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.DEFLATED, TEST_CONTENT_NAME, other)));
+        final long handle = archive.getEntryHandle(TEST_CONTENT_NAME);
+        final long otherHandle = otherArchive.getEntryHandle(TEST_CONTENT_NAME);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final WritableByteChannel target = Channels.newChannel(os);
+        // a target which transfers from another archive on the same thread while it is written to
+        final WritableByteChannel nesting = new WritableByteChannel() {
+            public int write(final ByteBuffer src) throws IOException {
+                final ByteArrayOutputStream otherOs = new ByteArrayOutputStream();
+                otherArchive.transferEntryTo(otherHandle, Channels.newChannel(otherOs));
+                assertArrayEquals(other, otherOs.toByteArray());
+                return target.write(src);
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        assertEquals(content.length, archive.transferEntryTo(handle, nesting));
+        assertArrayEquals(content, os.toByteArray());
+    }
+
+    @Test
+    public void testDirectoryIndex() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(os)) {
+            for (String name : new String[] { "org/", "org/foo/", "org/foo/A.class", "org/foo/B.class", "org/foo/bar/C.class", "org/baz/D.class", "top.txt", "empty/" }) {
+                jos.putNextEntry(new JarEntry(name));
+                jos.closeEntry();
+            }
+        }
+        final Archive archive = Archive.open(ByteBuffer.wrap(os.toByteArray()));
+        assertTrue(archive.directoryExists(""));
+        assertTrue(archive.directoryExists("org"));
+        assertTrue(archive.directoryExists("org/foo/"));
+        // implied only
+        assertTrue(archive.directoryExists("org/foo/bar"));
+        assertTrue(archive.directoryExists("org/baz/"));
+        assertTrue(archive.directoryExists("empty"));
+        assertFalse(archive.directoryExists("org/foo/A.class"));
+        assertFalse(archive.directoryExists("nope"));
+        assertEquals(Arrays.asList("org/", "empty/"), archive.getChildDirectoryNames(""));
+        assertEquals(Arrays.asList("org/foo/", "org/baz/"), archive.getChildDirectoryNames("org"));
+        assertEquals(Arrays.asList("org/foo/bar/"), archive.getChildDirectoryNames("org/foo/"));
+        assertEquals(Collections.emptyList(), archive.getChildDirectoryNames("empty/"));
+        assertEquals(Arrays.asList("org/", "top.txt", "empty/"), namesOf(archive, archive.getChildEntryHandles("/")));
+        assertEquals(Arrays.asList("org/foo/"), namesOf(archive, archive.getChildEntryHandles("org/")));
+        assertEquals(Arrays.asList("org/foo/A.class", "org/foo/B.class"), namesOf(archive, archive.getChildEntryHandles("org/foo")));
+        assertEquals(Arrays.asList("org/foo/bar/C.class"), namesOf(archive, archive.getChildEntryHandles("org/foo/bar/")));
+        assertEquals(0, archive.getChildEntryHandles("nope").length);
+    }
+
+    private static List<String> namesOf(Archive archive, long[] handles) {
+        final List<String> names = new ArrayList<>();
+        for (long handle : handles) {
+            names.add(archive.getEntryName(handle));
+        }
+        return names;
+    }
+
+    @Test
+    public void testAllocationFreeLookup() throws IOException {
+        final String[] names = { "org/foo/A.class", "org/foo/\u00e9t\u00e9.txt", "META-INF/MANIFEST.MF" };
+        for (Charset charset : new Charset[] { StandardCharsets.UTF_8, Charset.forName("IBM437") }) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (ZipOutputStream zos = new ZipOutputStream(os, charset)) {
+                for (String name : names) {
+                    zos.putNextEntry(new ZipEntry(name));
+                    zos.closeEntry();
+                }
+            }
+            final Archive archive = Archive.open(ByteBuffer.wrap(os.toByteArray()));
+            for (String name : names) {
+                final long handle = archive.getEntryHandle(name);
+                assertNotEquals(-1, handle);
+                assertEquals(name, archive.getEntryName(handle));
+                assertEquals(handle, archive.getEntryHandle(new StringBuilder(name)));
+                final byte[] encoded = ("xx" + name + "yy").getBytes(StandardCharsets.UTF_8);
+                assertEquals(handle, archive.getEntryHandle(encoded, 2, encoded.length - 4));
+                assertTrue(archive.entryNameEquals(handle, new StringBuilder(name)));
+                assertTrue(archive.entryNameStartsWith(handle, name.substring(0, 4)));
+                assertTrue(archive.entryNameStartsWith(handle, name));
+                assertTrue(archive.entryNameStartsWith(handle, ""));
+                assertFalse(archive.entryNameStartsWith(handle, name + "x"));
+                assertFalse(archive.entryNameStartsWith(handle, "x"));
+            }
+            final byte[] missing = "org/foo/B.class".getBytes(StandardCharsets.UTF_8);
+            assertEquals(-1, archive.getEntryHandle(missing, 0, missing.length));
+            assertEquals(-1, archive.getEntryHandle(new StringBuilder("org/foo/A.clas")));
+        }
+    }
+
+    private static byte[] makeMultiReleaseArchive(boolean multiRelease) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            manifest.getMainAttributes().putValue("Multi-Release", "true");
+        }
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(os, manifest)) {
+            for (String name : new String[] { "A.class", "META-INF/versions/9/A.class", "META-INF/versions/11/A.class", "META-INF/versions/17/B.class", "C.class", "META-INF/versions/11/C.class", "META-INF/versions/x/D.class" }) {
+                jos.putNextEntry(new JarEntry(name));
+                jos.closeEntry();
+            }
+        }
+        return os.toByteArray();
+    }
+
+    private static String resolve(Archive archive, String name) {
+        final long handle = archive.getEntryHandle(name);
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        assertEquals(handle, archive.getEntryHandle(bytes, 0, bytes.length));
+        return handle == -1 ? null : archive.getEntryName(handle);
+    }
+
+    @Test
+    public void testMultiReleaseView() throws IOException {
+        final Archive archive = Archive.open(ByteBuffer.wrap(makeMultiReleaseArchive(true)));
+        assertTrue(archive.isMultiRelease());
+        assertEquals("A.class", resolve(archive, "A.class"));
+        Archive view = archive.getMultiReleaseView(8);
+        assertEquals("A.class", resolve(view, "A.class"));
+        assertNull(resolve(view, "B.class"));
+        assertEquals("C.class", resolve(view, "C.class"));
+        view = archive.getMultiReleaseView(10);
+        assertEquals("META-INF/versions/9/A.class", resolve(view, "A.class"));
+        assertEquals("C.class", resolve(view, "C.class"));
+        view = archive.getMultiReleaseView(11);
+        assertEquals("META-INF/versions/11/A.class", resolve(view, "A.class"));
+        assertNull(resolve(view, "B.class"));
+        assertEquals("META-INF/versions/11/C.class", resolve(view, "C.class"));
+        view = archive.getMultiReleaseView(17);
+        assertEquals("META-INF/versions/17/B.class", resolve(view, "B.class"));
+        // verbatim names
+        assertEquals("META-INF/versions/9/A.class", resolve(view, "META-INF/versions/9/A.class"));
+        assertEquals("META-INF/versions/x/D.class", resolve(view, "META-INF/versions/x/D.class"));
+        assertNull(resolve(view, "D.class"));
+        assertEquals("META-INF/MANIFEST.MF", resolve(view, "META-INF/MANIFEST.MF"));
+        view.close();
+        // the base archive is still usable
+        assertNotNull(archive.getEntryContents(archive.getEntryHandle("META-INF/MANIFEST.MF")));
+
+        final Archive plain = Archive.open(ByteBuffer.wrap(makeMultiReleaseArchive(false)));
+        assertFalse(plain.isMultiRelease());
+        view = plain.getMultiReleaseView(17);
+        assertEquals("A.class", resolve(view, "A.class"));
+        assertNull(resolve(view, "B.class"));
+        // the default view follows the running JDK
+        final String version = System.getProperty("java.specification.version");
+        assertEquals(Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version), JDKSpecific.getRuntimeRelease());
+    }
+
+    @Test
+    public void testNestedArchiveCache() throws IOException {
+        final byte[] inner = makeArchive(ZipEntry.DEFLATED, 50);
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(method, "lib/inner.jar", inner)));
+            final long handle = archive.getEntryHandle("lib/inner.jar");
+            final Archive nested = archive.getNestedArchive(handle);
+            checkArchive(nested, 50);
+            final Archive again = archive.getNestedArchive(handle);
+            assertNotSame(nested, again);
+            assertSame(nested.getData(), again.getData());
+            again.close();
+            // a second close must not release the reference of another holder
+            again.close();
+            checkArchive(nested, 50);
+            nested.close();
+            // still cached by the outer archive
+            final Archive cached = archive.getNestedArchive(handle);
+            assertSame(nested.getData(), cached.getData());
+            archive.close();
+            // the caller's reference keeps it usable
+            checkArchive(cached, 50);
+            cached.close();
+        }
+    }
+
+    @Test
+    public void testVerifyChecksums() throws IOException {
+        final byte[] content = makeLargeContent();
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final byte[] bytes = makeArchive(method, TEST_CONTENT_NAME, content);
+            Archive archive = Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.VERIFY_CHECKSUMS);
+            final long handle = archive.getEntryHandle(TEST_CONTENT_NAME);
+            assertEquals(ByteBuffer.wrap(content), archive.getEntryContents(handle));
+            // verified entries are not checked again
+            assertEquals(ByteBuffer.wrap(content), archive.getEntryContents(handle));
+            try (InputStream is = archive.getEntryStream(handle)) {
+                assertArrayEquals(content, readAll(is));
+            }
+            // now corrupt the recorded checksum
+            bytes[(int) handle + Archive.CDE_CRC_32] ^= 1;
+            archive = Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.VERIFY_CHECKSUMS);
+            try {
+                archive.getEntryContents(handle);
+                fail("Expected checksum mismatch");
+            } catch (IOException expected) {
+            }
+            try (InputStream is = archive.getEntryStream(handle)) {
+                readAll(is);
+                fail("Expected checksum mismatch");
+            } catch (IOException expected) {
+            }
+            // not verified unless requested
+            assertEquals(ByteBuffer.wrap(content), Archive.open(ByteBuffer.wrap(bytes)).getEntryContents(handle));
+        }
+    }
+
+    @Test
+    public void testSingleByteRead() throws IOException {
+        final byte[] content = { 1, (byte) 0xff, 2, 3 };
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final byte[] bytes = makeArchive(method, TEST_CONTENT_NAME, content);
+            for (Archive archive : new Archive[] { Archive.open(ByteBuffer.wrap(bytes)), Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.VERIFY_CHECKSUMS) }) {
+                try (InputStream is = archive.getEntryStream(archive.getEntryHandle(TEST_CONTENT_NAME))) {
+                    if (method == ZipEntry.STORED) {
+                        assertEquals(0, is.skip(-1));
+                    }
+                    for (byte b : content) {
+                        assertEquals(b & 0xff, is.read());
+                    }
+                    assertEquals(-1, is.read());
+                }
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] b = new byte[1000];
+        int cnt;
+        while ((cnt = is.read(b)) != -1) {
+            os.write(b, 0, cnt);
+        }
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final Archive archive = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.DEFLATED, 50)));
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 50; i ++) {
+            names.add("dir" + i % 7 + "/file" + i + ".txt");
+        }
+        names.add("missing.txt");
+        archive.prefetch(names).get();
+        final long inflations = archive.getInflaterPoolHitCount() + archive.getInflaterPoolMissCount();
+        checkArchive(archive, 50);
+        // every entry came from the prefetch cache
+        assertEquals(inflations, archive.getInflaterPoolHitCount() + archive.getInflaterPoolMissCount());
+        // the cache is consumed by reading
+        checkArchive(archive, 50);
+        assertEquals(inflations + 50, archive.getInflaterPoolHitCount() + archive.getInflaterPoolMissCount());
+
+        final Archive stored = Archive.open(ByteBuffer.wrap(makeArchive(ZipEntry.STORED, 50)));
+        final long[] handles = new long[50];
+        for (int i = 0; i < 50; i ++) {
+            handles[i] = stored.getEntryHandle(names.get(i));
+        }
+        stored.prefetch(handles, Runnable::run, true).get();
+        checkArchive(stored, 50);
+    }
+
+    @Test
+    public void testArchiveBuilder() throws IOException {
+        final byte[] text = makeLargeContent();
+        final byte[] random = new byte[100_000];
+        new Random(1234).nextBytes(random);
+        final long time = LocalDateTime.of(2020, 12, 31, 23, 59, 58).toInstant(ZoneOffset.UTC).toEpochMilli();
+        final Path file = Files.createTempFile("archive-test", ".zip");
+        try {
+            try (ArchiveBuilder builder = ArchiveBuilder.create(file)) {
+                builder.setModifiedTime(time);
+                builder.addDirectory("dir");
+                for (int i = 0; i < 100; i ++) {
+                    builder.addEntry("dir/file" + i + ".txt", (SIMPLE_CONTENT_1 + i).getBytes(StandardCharsets.UTF_8), i % 2 == 0);
+                }
+                builder.addEntry("dir/text.txt", text);
+                builder.addEntry("dir/random.bin", random);
+                builder.addEntry("dir/\u00e9t\u00e9.txt", new byte[0]);
+            }
+            final byte[] bytes = Files.readAllBytes(file);
+            final ByteBuffer eocd = ByteBuffer.wrap(bytes, bytes.length - Archive.EOCD_END, Archive.EOCD_END).slice().order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(0, eocd.getInt(Archive.EOCD_CD_START_OFFSET) % 8);
+            final Archive archive = Archive.open(file);
+            assertTrue(archive.isDirectory(archive.getEntryHandle("dir/")));
+            for (int i = 0; i < 100; i ++) {
+                final long handle = archive.getEntryHandle("dir/file" + i + ".txt");
+                assertEquals(ByteBuffer.wrap((SIMPLE_CONTENT_1 + i).getBytes(StandardCharsets.UTF_8)), archive.getEntryContents(handle));
+                assertEquals(time, archive.getModifiedTime(handle));
+            }
+            long handle = archive.getEntryHandle("dir/text.txt");
+            assertTrue(archive.getCompressedSize(handle) < text.length);
+            assertEquals(ByteBuffer.wrap(text), archive.getEntryContents(handle));
+            handle = archive.getEntryHandle("dir/random.bin");
+            // not worth compressing
+            assertEquals(random.length, archive.getCompressedSize(handle));
+            assertEquals(ByteBuffer.wrap(random), archive.getEntryContents(handle));
+            // empty entries have local headers too
+            assertEquals(0, archive.getEntryContents(archive.getEntryHandle("dir/")).remaining());
+            assertEquals(0, archive.getEntryContents(archive.getEntryHandle("dir/\u00e9t\u00e9.txt")).remaining());
+            archive.close();
+            // readable by the JDK too
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                assertEquals(104, zipFile.size());
+                try (InputStream is = zipFile.getInputStream(zipFile.getEntry("dir/text.txt"))) {
+                    assertArrayEquals(text, readAll(is));
+                }
+                for (String name : new String[] { "dir/", "dir/\u00e9t\u00e9.txt" }) {
+                    try (InputStream is = zipFile.getInputStream(zipFile.getEntry(name))) {
+                        assertEquals(0, readAll(is).length);
+                    }
+                }
+            }
+            final List<String> names = new ArrayList<>();
+            try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(file))) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    names.add(entry.getName());
+                    if (entry.getName().equals("dir/text.txt")) {
+                        assertArrayEquals(text, readAll(zis));
+                    }
+                }
+            }
+            assertEquals(104, names.size());
+            assertEquals("dir/", names.get(0));
+            assertEquals("dir/\u00e9t\u00e9.txt", names.get(103));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testArchiveBuilderZip64() throws IOException {
+        final int count = 0x10010;
+        final Path file = Files.createTempFile("archive-test", ".zip");
+        try {
+            try (ArchiveBuilder builder = ArchiveBuilder.create(file)) {
+                for (int i = 0; i < count; i ++) {
+                    builder.addEntry("e" + i, new byte[] { (byte) i }, false);
+                }
+            }
+            final Archive archive = Archive.open(file);
+            int found = 0;
+            for (long handle = archive.getFirstEntryHandle(); handle != -1; handle = archive.getNextEntryHandle(handle)) {
+                found ++;
+            }
+            assertEquals(count, found);
+            assertEquals(ByteBuffer.wrap(new byte[] { (byte) 0x1234 }), archive.getEntryContents(archive.getEntryHandle("e4660")));
+            archive.close();
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                assertEquals(count, zipFile.size());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEntryContentsIntoBuffer() throws IOException {
+        final byte[] content = makeLargeContent();
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final byte[] bytes = makeArchive(method, TEST_CONTENT_NAME, content);
+            for (Archive archive : new Archive[] { Archive.open(ByteBuffer.wrap(bytes)), Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.VERIFY_CHECKSUMS) }) {
+                final long handle = archive.getEntryHandle(TEST_CONTENT_NAME);
+                for (ByteBuffer target : new ByteBuffer[] { ByteBuffer.allocateDirect(content.length + 10), ByteBuffer.allocate(content.length + 10) }) {
+                    target.position(5);
+                    assertEquals(content.length, archive.getEntryContents(handle, target));
+                    assertEquals(content.length + 5, target.position());
+                    target.flip().position(5);
+                    assertEquals(ByteBuffer.wrap(content), target);
+                }
+                try {
+                    archive.getEntryContents(handle, ByteBuffer.allocateDirect(content.length - 1));
+                    fail("Expected overflow");
+                } catch (BufferOverflowException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        final byte[] bytes = makeArchive(ZipEntry.DEFLATED, 100);
+        assertNull(Archive.open(ByteBuffer.wrap(bytes)).getStatistics(10));
+        final Archive archive = Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.STATISTICS);
+        checkArchive(archive, 100);
+        archive.getEntryContents(archive.getEntryHandle("dir3/file3.txt"));
+        final ArchiveStatistics statistics = archive.getStatistics(5);
+        assertTrue(statistics.getOpenNanos() > 0);
+        assertEquals(100, statistics.getEntryCount());
+        assertTrue(statistics.getIndexTableSize() >= 200);
+        assertTrue(statistics.getIndexLoadFactor() <= 0.5);
+        assertTrue(statistics.getIndexMeanProbeLength() >= 1.0);
+        assertTrue(statistics.getIndexMaxProbeLength() >= 1);
+        assertTrue(statistics.getIndexLongestCluster() >= statistics.getIndexMaxProbeLength());
+        assertEquals(102, statistics.getLookupCount());
+        assertEquals(1, statistics.getLookupMissCount());
+        assertTrue(statistics.getLookupProbeCount() >= 102);
+        assertEquals(101, statistics.getInflateCount());
+        final List<ArchiveStatistics.EntryStatistics> hotEntries = statistics.getHotEntries();
+        assertEquals(5, hotEntries.size());
+        for (int i = 1; i < hotEntries.size(); i ++) {
+            assertTrue(hotEntries.get(i - 1).getInflateNanos() >= hotEntries.get(i).getInflateNanos());
+        }
+        long total = 0;
+        for (ArchiveStatistics.EntryStatistics entryStatistics : archive.getStatistics(1000).getHotEntries()) {
+            total += entryStatistics.getInflateCount();
+            if (entryStatistics.getName().equals("dir3/file3.txt")) {
+                assertEquals(2, entryStatistics.getInflateCount());
+            }
+        }
+        assertEquals(101, total);
+    }
+
+    @Test
+    public void testPerfectIndex() throws IOException {
+        final byte[] bytes = makeArchive(ZipEntry.STORED, 1000);
+        final Archive archive = Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.PERFECT_INDEX, Archive.Flag.STATISTICS);
+        checkArchive(archive, 1000);
+        final ArchiveStatistics statistics = archive.getStatistics(0);
+        assertEquals(1000, statistics.getEntryCount());
+        assertEquals(1, statistics.getIndexMaxProbeLength());
+        assertEquals(1, statistics.getLookupMaxProbeLength());
+        assertTrue(statistics.getIndexTableBytes() < Archive.open(ByteBuffer.wrap(bytes), Archive.Flag.STATISTICS).getStatistics(0).getIndexTableBytes());
+        // names which share a hash code fall back to linear probing
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (int i = 0; i < 100; i ++) {
+                zos.putNextEntry(new ZipEntry("file" + i));
+                zos.closeEntry();
+            }
+            assertEquals("Aa".hashCode(), "BB".hashCode());
+            zos.putNextEntry(new ZipEntry("Aa"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("BB"));
+            zos.closeEntry();
+        }
+        final Archive colliding = Archive.open(ByteBuffer.wrap(os.toByteArray()), Archive.Flag.PERFECT_INDEX);
+        assertEquals("Aa", colliding.getEntryName(colliding.getEntryHandle("Aa")));
+        assertEquals("BB", colliding.getEntryName(colliding.getEntryHandle("BB")));
+        assertEquals("file99", colliding.getEntryName(colliding.getEntryHandle("file99")));
+    }
+
+    @Test
+    public void testPerfectIndexCache() throws IOException {
+        final Path dir = Files.createTempDirectory("archive-test");
+        final Path file = dir.resolve("test.jar");
+        Files.write(file, makeArchive(ZipEntry.DEFLATED, 500));
+        final Path cacheDir = dir.resolve("cache");
+        try {
+            Archive.open(file, cacheDir, Archive.Flag.PERFECT_INDEX).close();
+            // the cached perfect index is used even without the flag
+            final Archive archive = Archive.open(file, cacheDir, Archive.Flag.STATISTICS);
+            assertEquals(1, archive.getStatistics(0).getIndexMaxProbeLength());
+            checkArchive(archive, 500);
+            archive.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testDeferredMapping() throws Exception {
+        final Path dir = Files.createTempDirectory("archive-test");
+        try {
+            // the central directory of the larger archive does not fit in the first read
+            for (int count : new int[] { 10, 20_000 }) {
+                for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+                    final Path file = dir.resolve("test-" + count + "-" + method + ".jar");
+                    Files.write(file, makeArchive(method, count));
+                    checkArchive(Archive.open(file, Archive.Flag.DEFER_MAPPING), count);
+                    checkArchive(Archive.openAsync(file).get(), count);
+                }
+            }
+            final Path zip64 = dir.resolve("zip64.zip");
+            try (ArchiveBuilder builder = ArchiveBuilder.create(zip64)) {
+                for (int i = 0; i < 0x10010; i ++) {
+                    builder.addEntry("e" + i, new byte[] { (byte) i }, false);
+                }
+            }
+            final Archive archive = Archive.openAsync(zip64, Archive.Flag.VERIFY_CHECKSUMS).get();
+            assertEquals(ByteBuffer.wrap(new byte[] { (byte) 0x1234 }), archive.getEntryContents(archive.getEntryHandle("e4660")));
+            archive.close();
+            final Path notAnArchive = dir.resolve("not-an-archive");
+            Files.write(notAnArchive, new byte[100]);
+            try {
+                Archive.openAsync(notAnArchive).get();
+                fail("Expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testArchiveRegistry() throws IOException {
+        final Path dir = Files.createTempDirectory("archive-test");
+        try {
+            final byte[] bytes = makeArchive(ZipEntry.DEFLATED, 100);
+            final Path copy1 = Files.write(dir.resolve("copy1.jar"), bytes);
+            final Path copy2 = Files.write(dir.resolve("copy2.jar"), bytes);
+            final Path other = Files.write(dir.resolve("other.jar"), makeArchive(ZipEntry.DEFLATED, 101));
+            final ArchiveRegistry registry = new ArchiveRegistry();
+            final Archive archive1 = registry.open(copy1);
+            final Archive archive2 = registry.open(copy2);
+            assertSame(archive1.getData(), archive2.getData());
+            final Archive otherArchive = registry.open(other);
+            assertNotSame(archive1, otherArchive);
+            final Archive verifying = registry.open(copy2, Archive.Flag.VERIFY_CHECKSUMS);
+            assertNotSame(archive1, verifying);
+            assertEquals(3, registry.size());
+            checkArchive(archive1, 100);
+            checkArchive(otherArchive, 101);
+            archive1.close();
+            // a second close must not release the reference of the second opening
+            archive1.close();
+            checkArchive(archive2, 100);
+            assertEquals(3, registry.size());
+            archive2.close();
+            assertEquals(2, registry.size());
+            final Archive archive3 = registry.open(copy1);
+            assertNotSame(archive1, archive3);
+            checkArchive(archive3, 100);
+            archive3.close();
+            otherArchive.close();
+            assertEquals(1, registry.size());
+            verifying.close();
+            assertEquals(0, registry.size());
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testAlignedEntries() throws IOException {
+        final byte[] library = makeLargeContent();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.putNextEntry(new ZipEntry("readme.txt"));
+            zos.write(SIMPLE_CONTENT_1.getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+            for (String name : new String[] { "lib/libaligned.so", "lib/libunaligned.so" }) {
+                final ZipEntry entry = new ZipEntry(name);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(library.length);
+                final CRC32 crc32 = new CRC32();
+                crc32.update(library);
+                entry.setCrc(crc32.getValue());
+                if (name.equals("lib/libaligned.so")) {
+                    // pad the local header with an extra field so that the data begins on a page boundary
+                    int pad = 4096 - (os.size() + 30 + name.length() + 4) % 4096;
+                    final byte[] extra = new byte[4 + pad];
+                    extra[0] = (byte) 0x35;
+                    extra[1] = (byte) 0xd9;
+                    extra[2] = (byte) pad;
+                    extra[3] = (byte) (pad >> 8);
+                    entry.setExtra(extra);
+                }
+                zos.putNextEntry(entry);
+                zos.write(library);
+                zos.closeEntry();
+            }
+        }
+        final Path dir = Files.createTempDirectory("archive-test");
+        try {
+            final Path file = Files.write(dir.resolve("test.zip"), os.toByteArray());
+            final Path target = dir.resolve("extracted");
+            for (Archive archive : new Archive[] { Archive.open(file), Archive.open(file, Archive.Flag.DEFER_MAPPING), Archive.open(ByteBuffer.wrap(os.toByteArray())) }) {
+                final long aligned = archive.getEntryHandle("lib/libaligned.so");
+                final long unaligned = archive.getEntryHandle("lib/libunaligned.so");
+                final long readme = archive.getEntryHandle("readme.txt");
+                assertTrue(archive.isEntryPageAligned(aligned));
+                assertEquals(0, archive.getEntryDataOffset(aligned) % 4096);
+                assertFalse(archive.isEntryPageAligned(unaligned));
+                assertTrue(archive.isEntryAligned(unaligned, 1));
+                assertFalse(archive.isEntryAligned(readme, 1));
+                assertEquals(library.length, archive.extractEntry(aligned, target));
+                assertArrayEquals(library, Files.readAllBytes(target));
+                assertEquals(library.length, archive.extractEntry(unaligned, target));
+                assertArrayEquals(library, Files.readAllBytes(target));
+                assertEquals(SIMPLE_CONTENT_1.length(), archive.extractEntry(readme, target));
+                assertEquals(SIMPLE_CONTENT_1, new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+                archive.close();
+            }
+            // a changed archive file is caught when checksums are verified
+            final Archive archive = Archive.open(file, Archive.Flag.VERIFY_CHECKSUMS);
+            final long aligned = archive.getEntryHandle("lib/libaligned.so");
+            final byte[] changed = os.toByteArray();
+            changed[(int) archive.getEntryDataOffset(aligned) + 100] ^= 1;
+            Files.write(file, changed);
+            try {
+                archive.extractEntry(aligned, target);
+                fail("Expected checksum mismatch");
+            } catch (IOException expected) {
+            }
+            archive.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
 }
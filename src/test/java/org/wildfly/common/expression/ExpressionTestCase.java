@@ -18,12 +18,30 @@
 
 package org.wildfly.common.expression;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
 import org.junit.Test;
 import org.wildfly.common.Assert;
+import org.wildfly.common.bytes.ByteStringBuilder;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -549,4 +567,212 @@ public class ExpressionTestCase {
             assertEquals("", c.getExpandedDefault());
         }));
     }
+
+    @Test
+    public void testMixedSegments() throws Exception {
+        final Expression expression = Expression.compile("a\\\\b${x}c\\\\${y:${z:dz}}$$d", Expression.Flag.ESCAPES);
+        assertEquals("a\\bXc\\dz$d", expression.evaluate((c, b) -> {
+            final String key = c.getKey();
+            if (key.equals("x")) {
+                b.append('X');
+            } else if (key.equals("$")) {
+                b.append('$');
+            } else {
+                c.expandDefault();
+            }
+        }));
+    }
+
+    @Test
+    public void testLiteralIsShared() throws Exception {
+        final Expression expression = Expression.compile("plain-\\\\content", Expression.Flag.ESCAPES);
+        final String value = expression.evaluate((c, b) -> {
+            fail("unexpected expansion");
+        });
+        assertEquals("plain-\\content", value);
+        assertSame(value, expression.evaluate((c, b) -> {
+            fail("unexpected expansion");
+        }));
+    }
+
+    @Test
+    public void testCachingResolver() throws Exception {
+        final String key = "org.wildfly.common.expression.test.caching";
+        System.setProperty(key, "one");
+        try {
+            final Expression expression = Expression.compile("${" + key + "}-${env.org.wildfly.common.expression.test.missing:none}");
+            final CachingResolver resolver = CachingResolver.ofPropertiesAndEnvironment(true);
+            assertEquals("one-none", expression.evaluate(resolver));
+            System.setProperty(key, "two");
+            // still resolved from the snapshot
+            assertEquals("one-none", expression.evaluate(resolver));
+            resolver.refresh();
+            assertEquals("two-none", expression.evaluate(resolver));
+            System.setProperty(key, "three");
+            resolver.invalidate();
+            assertEquals("three-none", expression.evaluate(resolver));
+            System.clearProperty(key);
+            resolver.refresh();
+            try {
+                expression.evaluate(resolver);
+                fail("Expected exception");
+            } catch (IllegalArgumentException expected) {
+            }
+            assertEquals("-none", expression.evaluate(CachingResolver.ofProperties(false)));
+            assertEquals(System.getenv("PATH") == null ? "" : System.getenv("PATH"), Expression.compile("${PATH}").evaluate(CachingResolver.ofEnvironment(false)));
+        } finally {
+            System.clearProperty(key);
+        }
+    }
+
+    @Test
+    public void testEvaluateAll() throws Exception {
+        final List<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < 100; i ++) {
+            expressions.add(Expression.compile("${host}:${port" + i % 3 + "}/${missing:" + i + "}"));
+        }
+        expressions.add(Expression.compile("literal"));
+        final Map<String, Integer> counts = new HashMap<>();
+        final List<String> results = Expression.evaluateAll(expressions, (c, b) -> {
+            final String key = c.getKey();
+            counts.merge(key, Integer.valueOf(1), Integer::sum);
+            if (key.equals("missing")) {
+                c.expandDefault();
+            } else {
+                b.append(key.toUpperCase(Locale.ROOT));
+            }
+        });
+        assertEquals(101, results.size());
+        for (int i = 0; i < 100; i ++) {
+            assertEquals("HOST:PORT" + i % 3 + "/" + i, results.get(i));
+        }
+        assertEquals("literal", results.get(100));
+        assertEquals(Integer.valueOf(1), counts.get("host"));
+        assertEquals(Integer.valueOf(1), counts.get("port0"));
+        assertEquals(Integer.valueOf(1), counts.get("port2"));
+        // results which depend on the default value are not reused
+        assertEquals(Integer.valueOf(100), counts.get("missing"));
+    }
+
+    @Test
+    public void testCompileCache() throws Exception {
+        final String string = "${jboss.bind.address:127.0.0.1}";
+        final Expression expression = Expression.compile(string);
+        final long hits = Expression.getCompileCacheHitCount();
+        assertSame(expression, Expression.compile(string));
+        assertSame(expression, Expression.compile(string, EnumSet.noneOf(Expression.Flag.class)));
+        assertEquals(hits + 2, Expression.getCompileCacheHitCount());
+        final long misses = Expression.getCompileCacheMissCount();
+        assertNotSame(expression, Expression.compile(string, Expression.Flag.NO_TRIM));
+        assertEquals(misses + 1, Expression.getCompileCacheMissCount());
+        // least recently used entries are evicted in bulk
+        final CompileCache cache = new CompileCache(8);
+        final EnumSet<Expression.Flag> flags = EnumSet.noneOf(Expression.Flag.class);
+        for (int i = 0; i < 8; i ++) {
+            cache.put("e" + i, flags, Expression.compile("e" + i));
+        }
+        assertSame(Expression.compile("e0"), cache.get("e0", flags));
+        cache.put("e8", flags, Expression.compile("e8"));
+        assertEquals(6, cache.size());
+        assertSame(Expression.compile("e0"), cache.get("e0", flags));
+        assertNull(cache.get("e1", flags));
+        assertNull(cache.get("e0", EnumSet.of(Expression.Flag.ESCAPES)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvaluateToTarget() throws Exception {
+        final Expression expression = Expression.compile("caf\u00e9 ${name} \ud83d\ude00 ${missing:none}");
+        final BiConsumer<ResolveContext<RuntimeException>, StringBuilder> function = (c, b) -> {
+            if (c.getKey().equals("name")) {
+                b.append("na\u00efve");
+            } else {
+                c.expandDefault();
+            }
+        };
+        final String expected = expression.evaluate(function);
+        assertEquals("caf\u00e9 na\u00efve \ud83d\ude00 none", expected);
+        final StringWriter writer = new StringWriter();
+        expression.evaluate(function, writer);
+        assertEquals(expected, writer.toString());
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        expression.evaluate(function, builder);
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), builder.toArray());
+        final StringBuilder literal = new StringBuilder("x");
+        Expression.compile("plain").evaluate(function, literal);
+        assertEquals("xplain", literal.toString());
+    }
+
+    @Test
+    public void testExpressionRegistry() throws Exception {
+        final Map<String, String> values = new HashMap<>();
+        values.put("host", "localhost");
+        values.put("port", "8080");
+        values.put("sel", "a");
+        values.put("x.a", "first");
+        values.put("x.b", "second");
+        final Map<String, Integer> counts = new HashMap<>();
+        final ExpressionRegistry registry = new ExpressionRegistry((c, b) -> {
+            final String key = c.getKey();
+            counts.merge(key, Integer.valueOf(1), Integer::sum);
+            final String value = values.get(key);
+            if (value == null) {
+                c.expandDefault();
+            } else if (value.equals("!")) {
+                throw new IllegalStateException("Cannot resolve " + key);
+            } else {
+                b.append(value);
+            }
+        });
+        final Expression url = Expression.compile("http://${host}:${port}/");
+        final Expression fallback = Expression.compile("${override:${host}}");
+        final Expression selected = Expression.compile("${x.${sel}}");
+        assertEquals("http://localhost:8080/", registry.register(url));
+        assertEquals("localhost", registry.register(fallback));
+        assertEquals("first", registry.register(selected));
+        assertEquals(3, registry.size());
+        // unrelated keys affect nothing
+        counts.clear();
+        assertTrue(registry.update(Collections.singleton("unrelated")).isEmpty());
+        assertTrue(counts.isEmpty());
+        // a key used only through a default value
+        values.put("host", "example.com");
+        Map<Expression, String> changed = registry.update(Collections.singleton("host"));
+        assertEquals(2, changed.size());
+        assertEquals("http://example.com:8080/", changed.get(url));
+        assertEquals("example.com", changed.get(fallback));
+        assertEquals("example.com", registry.getResult(fallback));
+        // a key which is built by expansion
+        values.put("x.a", "changed");
+        assertEquals("changed", registry.update(Collections.singleton("x.a")).get(selected));
+        values.put("sel", "b");
+        assertEquals("second", registry.update(Collections.singleton("sel")).get(selected));
+        values.put("x.a", "ignored");
+        assertTrue(registry.update(Collections.singleton("x.a")).isEmpty());
+        // an override replaces the default
+        values.put("override", "other");
+        counts.clear();
+        assertEquals(Collections.singletonMap(fallback, "other"), registry.update(Collections.singleton("override")));
+        assertEquals(Integer.valueOf(1), counts.get("override"));
+        assertNull(counts.get("port"));
+        // a failed update changes nothing, so that a retry reports every change
+        values.put("host", "failed.example.com");
+        values.remove("override");
+        values.put("port", "!");
+        try {
+            registry.update(Arrays.asList("override", "host"));
+            fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals("other", registry.getResult(fallback));
+        values.put("port", "8443");
+        changed = registry.update(Arrays.asList("override", "host"));
+        assertEquals("failed.example.com", changed.get(fallback));
+        assertEquals("http://failed.example.com:8443/", changed.get(url));
+        assertTrue(registry.unregister(url));
+        assertFalse(registry.unregister(url));
+        assertNull(registry.getResult(url));
+        assertTrue(registry.update(Collections.singleton("port")).isEmpty());
+    }
 }